@@ -0,0 +1,56 @@
+package opencrypto.jcmathlib;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+
+/**
+ * Precomputed values for Barrett reduction modulo a fixed modulus.
+ *
+ * The context is attached to the modulus using BigNat.setBarrettContext and is then used by mod, and through it by
+ * the software modMult and the RSA_EXTRA_MOD post-processing of modExp, for values of at most twice the length of
+ * the modulus. Each reduction takes two multiplications instead of a long division.
+ */
+public class BarrettContext {
+    final BigNat mod;
+    final BigNat mu; // floor(2^(16k) / mod)
+    short k; // number of significant digits of mod
+    private final ResourceManager rm;
+
+    /**
+     * Creates a context for the given modulus. The modulus object is referenced, not copied.
+     *
+     * @param mod non-zero modulus
+     * @param rm resource manager
+     */
+    public BarrettContext(BigNat mod, ResourceManager rm) {
+        this.mod = mod;
+        this.rm = rm;
+        mu = new BigNat((short) (mod.length() + 2), JCSystem.MEMORY_TYPE_PERSISTENT, rm);
+        refresh();
+    }
+
+    /**
+     * Recomputes the precomputed values. Must be called whenever the value of the modulus changes.
+     */
+    public void refresh() {
+        if (mod.isZero()) {
+            ISOException.throwIt(ReturnCodes.SW_BIGNAT_INVALIDMOD);
+        }
+
+        k = mod.significantLength();
+
+        // mu = floor((2^(16k) - 1) / mod), plus one if mod divides 2^(16k)
+        BigNat tmp = rm.BN_E;
+        tmp.lock();
+        tmp.setSize((short) (2 * k));
+        tmp.zero();
+        tmp.decrement();
+        tmp.remainderDivide(mod, mu);
+        tmp.increment();
+        if (tmp.equals(mod)) {
+            mu.resize((short) (k + 2));
+            mu.increment();
+        }
+        tmp.unlock();
+    }
+}
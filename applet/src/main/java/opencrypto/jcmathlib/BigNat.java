@@ -2,15 +2,18 @@ package opencrypto.jcmathlib;
 
 import javacard.framework.ISOException;
 import javacard.framework.Util;
-import javacard.security.RSAPrivateKey;
-import javacard.security.RSAPublicKey;
-import javacardx.crypto.Cipher;
-import javacard.security.KeyBuilder;
 
 /**
  * @author Vasilios Mavroudis and Petr Svenda and Antonin Dufka
  */
 public class BigNat extends BigNatInternal {
+    public static final byte SQRT_TONELLI_SHANKS = 0; // generic algorithm
+    public static final byte SQRT_P3MOD4 = 1; // single exponentiation by (p + 1) / 4
+    public static final byte SQRT_P5MOD8 = 2; // Atkin's algorithm
+
+    private MontgomeryContext montgomery;
+    private BarrettContext barrett;
+    private SpecialFormContext special;
 
     /**
      * Construct a BigNat of a given size in bytes.
@@ -19,6 +22,37 @@ public class BigNat extends BigNatInternal {
         super(size, allocatorType, rm);
     }
 
+    /**
+     * Attach precomputed Montgomery context to this BigNat when it is used as a modulus. Modular multiplication,
+     * squaring and exponentiation by this modulus then avoid remainderDivide when computed in software.
+     *
+     * @param montgomery context created for this BigNat or null to detach it
+     */
+    public void setMontgomeryContext(MontgomeryContext montgomery) {
+        this.montgomery = montgomery;
+    }
+
+    /**
+     * Attach precomputed Barrett context to this BigNat when it is used as a modulus. Reduction of values of at
+     * most twice the length of this modulus then avoids remainderDivide.
+     *
+     * @param barrett context created for this BigNat or null to detach it
+     */
+    public void setBarrettContext(BarrettContext barrett) {
+        this.barrett = barrett;
+    }
+
+    /**
+     * Attach a special form context to this BigNat when it is used as a modulus. Reduction of values of at most
+     * twice the length of this modulus is then done by folding instead of Barrett reduction or remainderDivide, and
+     * modular multiplication prefers it over the Montgomery context when multiplying in software.
+     *
+     * @param special context created for this BigNat or null to detach it
+     */
+    public void setSpecialFormContext(SpecialFormContext special) {
+        this.special = special;
+    }
+
     /**
      * Division of this BigNat by provided other BigNat.
      */
@@ -33,26 +67,50 @@ public class BigNat extends BigNatInternal {
 
     /**
      * Greatest common divisor of this BigNat with other BigNat. Result is stored into this.
+     * Uses the binary (Stein's) algorithm, which needs only shifts and subtractions.
      */
     public void gcd(BigNat other) {
-        BigNat tmp = rm.BN_A;
         BigNat tmpOther = rm.BN_B;
 
-        tmp.lock();
         tmpOther.lock();
-
         tmpOther.clone(other);
-
-        // TODO: optimise?
-        while (!tmpOther.isZero()) {
-            tmp.clone(tmpOther);
-            mod(tmpOther);
-            tmpOther.clone(this);
-            clone(tmp);
+        if (isZero()) {
+            clone(tmpOther);
+        }
+        if (tmpOther.isZero()) {
+            tmpOther.unlock();
+            return;
         }
 
-        tmp.unlock();
+        // gcd(2^k a, 2^k b) = 2^k gcd(a, b)
+        short commonShift = trailingZeroBits();
+        short otherShift = tmpOther.trailingZeroBits();
+        if (otherShift < commonShift) {
+            commonShift = otherShift;
+        }
+        removeFactorsOfTwo(this);
+        removeFactorsOfTwo(tmpOther);
+
+        // gcd(a, b) = gcd(a - b, b), and a - b of odd a, b is even
+        while (!equals(tmpOther)) {
+            if (tmpOther.isLesser(this)) {
+                subtract(tmpOther);
+                removeFactorsOfTwo(this);
+            } else {
+                tmpOther.subtract(this);
+                removeFactorsOfTwo(tmpOther);
+            }
+        }
         tmpOther.unlock();
+
+        shiftLeft(commonShift);
+    }
+
+    /**
+     * Divides a non-zero value by two until it is odd.
+     */
+    private static void removeFactorsOfTwo(BigNat value) {
+        value.shiftRight(value.trailingZeroBits());
     }
 
     /**
@@ -75,11 +133,7 @@ public class BigNat extends BigNatInternal {
      */
     public void sq() {
         if (!OperationSupport.getInstance().RSA_SQ) {
-            BigNat tmp = rm.BN_E;
-            tmp.lock();
-            tmp.setSize(length());
-            tmp.copy(this);
-            super.mult(tmp);
+            super.sq();
             return;
         }
         if ((short) (rm.MAX_SQ_LENGTH - 1) < (short) (2 * length())) {
@@ -153,6 +207,14 @@ public class BigNat extends BigNatInternal {
      * Computes modulo and stores the result in this.
      */
     public void mod(BigNat mod) {
+        if (mod.special != null) {
+            if (mod.special.form == SpecialFormContext.NIST_P256 ? p256Reduce(mod) : pseudoMersenneReduce(mod, mod.special.c)) {
+                return;
+            }
+        }
+        if (mod.barrett != null && barrettReduce(mod, mod.barrett.mu, mod.barrett.k)) {
+            return;
+        }
         remainderDivide(mod, null);
     }
 
@@ -194,6 +256,38 @@ public class BigNat extends BigNatInternal {
         setSize(mod.length());
     }
 
+    /**
+     * Adds other to this without reducing the result, so no comparison with the modulus is made. This is kept one
+     * byte longer than the modulus and the result must fit into it. A chain of lazy operations is finished by
+     * modReduceLazy before the value is used by other modular operations.
+     */
+    public void modAddLazy(BigNat other, BigNat mod) {
+        resize((short) (mod.length() + 1));
+        add(other);
+    }
+
+    /**
+     * Subtracts other from this without reducing the result by adding mod - other, so no comparison is made. Other
+     * must be reduced modulo mod. This is kept one byte longer than the modulus and the result must fit into it.
+     * A chain of lazy operations is finished by modReduceLazy.
+     */
+    public void modSubLazy(BigNat other, BigNat mod) {
+        resize((short) (mod.length() + 1));
+        add(mod);
+        subtract(other);
+    }
+
+    /**
+     * Reduces the result of a chain of modAddLazy and modSubLazy calls and sets the size to the length of the
+     * modulus. Takes one subtraction per multiple of the modulus, so it is meant for short chains.
+     */
+    public void modReduceLazy(BigNat mod) {
+        while (!isLesser(mod)) {
+            subtract(mod);
+        }
+        setSize(mod.length());
+    }
+
     /**
      * Square this mod a modulus fixed with fixModSqMod method.
      */
@@ -230,80 +324,50 @@ public class BigNat extends BigNatInternal {
     }
 
     /**
-     * Computes (this ^ exp % mod) using RSA algorithm and store results into this.
+     * Computes (this ^ exp % mod) and stores the result into this. Uses the RSA engine unless it is disabled, the
+     * exponent is short, or this or mod is too long for it, in which case software sliding window exponentiation
+     * is used. Software exponentiation works for any modulus that fits the scratch BigNats.
      */
     public void modExp(BigNat exp, BigNat mod) {
-        if (!OperationSupport.getInstance().RSA_EXP)
-            ISOException.throwIt(ReturnCodes.SW_OPERATION_NOT_SUPPORTED);
-        if (OperationSupport.getInstance().RSA_CHECK_EXP_ONE && exp.isOne())
-            return;
-        if (!OperationSupport.getInstance().RSA_SQ && exp.isTwo()) {
-            modMult(this, mod);
+        OperationSupport os = OperationSupport.getInstance();
+        boolean engine = os.RSA_EXP && (short) (mod.length() * 8) <= rm.MAX_EXP_BIT_LENGTH
+                && (short) (length() * 8) <= rm.MAX_EXP_BIT_LENGTH;
+        short bits = exp.bitLength();
+        // Without a Montgomery context, RSA_SQ cards multiply by a square and a division, so the engine is faster
+        if (!engine || (bits <= os.SW_EXP_MAX_BIT_LENGTH && (mod.montgomery != null || !os.RSA_SQ))) {
+            // Scratch of the software engine, power and product in BN_H and BN_E, must fit the modulus
+            if (rm.MAX_BIGNAT_SIZE < mod.length()) {
+                ISOException.throwIt(ReturnCodes.SW_BIGNAT_MODULOTOOLARGE);
+            }
+            slidingWindowModExp(exp, bits, mod);
             return;
         }
+        if (OperationSupport.getInstance().RSA_CHECK_EXP_ONE && exp.isOne())
+            return;
 
         BigNat tmpMod = rm.BN_F; // modExp is called from modSqrt => requires BN_F not being locked when modExp is called
         byte[] tmpBuffer = rm.ARRAY_A;
         short modLength;
 
-        tmpMod.lock();
-        tmpMod.setSize(rm.MAX_EXP_LENGTH);
-
-        if (OperationSupport.getInstance().RSA_PUB) {
-            // Verify if pre-allocated engine match the required values
-            if (rm.expPub.getSize() < (short) (mod.length() * 8) || rm.expPub.getSize() < (short) (length() * 8)) {
-                ISOException.throwIt(ReturnCodes.SW_BIGNAT_MODULOTOOLARGE);
-            }
-            if (OperationSupport.getInstance().RSA_KEY_REFRESH) {
-                // Simulator fails when reusing the original object
-                rm.expPub = (RSAPublicKey) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PUBLIC, rm.MAX_EXP_BIT_LENGTH, false);
-            }
-            rm.lock(tmpBuffer);
-            short len = exp.copyToByteArray(tmpBuffer, (short) 0);
-            rm.expPub.setExponent(tmpBuffer, (short) 0, len);
-            if (OperationSupport.getInstance().RSA_RESIZE_MOD) {
-                if (OperationSupport.getInstance().RSA_APPEND_MOD) {
-                    mod.appendZeros(rm.MAX_EXP_LENGTH, tmpBuffer, (short) 0);
-                } else {
-                    mod.prependZeros(rm.MAX_EXP_LENGTH, tmpBuffer, (short) 0);
-                }
-                rm.expPub.setModulus(tmpBuffer, (short) 0, rm.MAX_EXP_LENGTH);
-                modLength = rm.MAX_EXP_LENGTH;
-            } else {
-                modLength = mod.copyToByteArray(tmpBuffer, (short) 0);
-                rm.expPub.setModulus(tmpBuffer, (short) 0, modLength);
-            }
-            rm.expCiph.init(rm.expPub, Cipher.MODE_DECRYPT);
+        // The engine takes a base shorter than its key, so a long or unreduced base is reduced first
+        if (!isLesser(mod)) {
+            mod(mod);
+        }
+        shrink();
+        short slot = rm.expSlot(exp, mod);
+        if (OperationSupport.getInstance().RSA_RESIZE_MOD) {
+            modLength = rm.MAX_EXP_LENGTH;
+        } else if (rm.expCacheMod == null) {
+            modLength = mod.length();
         } else {
-            // Verify if pre-allocated engine match the required values
-            if (rm.expPriv.getSize() < (short) (mod.length() * 8) || rm.expPriv.getSize() < (short) (length() * 8)) {
-                ISOException.throwIt(ReturnCodes.SW_BIGNAT_MODULOTOOLARGE);
-            }
-            if (OperationSupport.getInstance().RSA_KEY_REFRESH) {
-                // Simulator fails when reusing the original object
-                rm.expPriv = (RSAPrivateKey) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PRIVATE, rm.MAX_EXP_BIT_LENGTH, false);
-            }
-            rm.lock(tmpBuffer);
-            short len = exp.copyToByteArray(tmpBuffer, (short) 0);
-            rm.expPriv.setExponent(tmpBuffer, (short) 0, len);
-            if (OperationSupport.getInstance().RSA_RESIZE_MOD) {
-                if (OperationSupport.getInstance().RSA_APPEND_MOD) {
-                    mod.appendZeros(rm.MAX_EXP_LENGTH, tmpBuffer, (short) 0);
-                } else {
-                    mod.prependZeros(rm.MAX_EXP_LENGTH, tmpBuffer, (short) 0);
-
-                }
-                rm.expPriv.setModulus(tmpBuffer, (short) 0, rm.MAX_EXP_LENGTH);
-                modLength = rm.MAX_EXP_LENGTH;
-            } else {
-                modLength = mod.copyToByteArray(tmpBuffer, (short) 0);
-                rm.expPriv.setModulus(tmpBuffer, (short) 0, modLength);
-            }
-            rm.expCiph.init(rm.expPriv, Cipher.MODE_DECRYPT);
+            modLength = rm.expCacheMod[slot].length(); // the key was set to the cached modulus, whose size may differ
         }
 
+        tmpMod.lock();
+        tmpMod.setSize(rm.MAX_EXP_LENGTH);
+        rm.lock(tmpBuffer);
         prependZeros(modLength, tmpBuffer, (short) 0);
-        short len = rm.expCiph.doFinal(tmpBuffer, (short) 0, modLength, tmpBuffer, (short) 0);
+        short len = rm.expCiph[slot].doFinal(tmpBuffer, (short) 0, modLength, tmpBuffer, (short) 0);
 
         if (len != rm.MAX_EXP_LENGTH) {
             if (OperationSupport.getInstance().RSA_PREPEND_ZEROS) {
@@ -328,9 +392,22 @@ public class BigNat extends BigNatInternal {
     }
 
     /**
-     * Computes modular inversion. The result is stored into this.
+     * Computes modular inversion by a prime modulus. The result is stored into this.
+     *
+     * Uses Fermat's little theorem, see primeModInv, so the sequence of operations depends only on the modulus. For
+     * a composite modulus the result is wrong, and public values may be inverted faster by modInvVarTime.
      */
     public void modInv(BigNat mod) {
+        primeModInv(mod);
+    }
+
+    /**
+     * Computes modular inversion by a prime modulus as this^(mod - 2). The result is stored into this.
+     *
+     * The exponent is public, so both the RSA engine and software exponentiation without RSA_EXP perform the same
+     * operations for any value of this. Use it to invert secrets.
+     */
+    public void primeModInv(BigNat mod) {
         BigNat tmp = rm.BN_B;
         tmp.lock();
         tmp.clone(mod);
@@ -341,6 +418,148 @@ public class BigNat extends BigNatInternal {
         tmp.unlock();
     }
 
+    /**
+     * Computes modular inversion by an odd modulus using the binary extended Euclidean algorithm. The result is
+     * stored into this. Works for any odd modulus coprime with this, e.g., the composite moduli of Paillier.
+     *
+     * Keeps the invariants x1 * this = u and x2 * this = v (mod mod) while u and v are reduced as in binary gcd. The
+     * running time depends on the values, so it must not be used to invert secrets. modInv never calls it, callers
+     * with public values opt in explicitly.
+     */
+    public void modInvVarTime(BigNat mod) {
+        BigNat u = rm.BN_A;
+        BigNat v = rm.BN_B;
+        BigNat x1 = rm.BN_C;
+        BigNat x2 = rm.BN_D;
+
+        if (!mod.isOdd()) {
+            ISOException.throwIt(ReturnCodes.SW_BIGNAT_INVALIDMOD);
+        }
+
+        u.lock();
+        u.clone(this);
+        u.mod(mod);
+        v.lock();
+        v.clone(mod);
+        x1.lock();
+        x1.setSize(mod.length());
+        x1.setValue((byte) 1);
+        x2.lock();
+        x2.setSize(mod.length());
+        x2.zero();
+
+        while (!u.isOne() && !v.isOne()) {
+            if (u.isZero()) {
+                u.unlock();
+                v.unlock();
+                x1.unlock();
+                x2.unlock();
+                ISOException.throwIt(ReturnCodes.SW_BIGNAT_INVALIDMOD); // this and mod are not coprime
+            }
+            halveWhileEven(u, x1, mod);
+            halveWhileEven(v, x2, mod);
+            if (u.isLesser(v)) {
+                v.subtract(u);
+                x2.modSub(x1, mod);
+            } else {
+                u.subtract(v);
+                x1.modSub(x2, mod);
+            }
+        }
+
+        setSize(mod.length());
+        copy(u.isOne() ? x1 : x2);
+        u.unlock();
+        v.unlock();
+        x1.unlock();
+        x2.unlock();
+    }
+
+    /**
+     * Divides value by two until it is odd and the coefficient by two modulo an odd modulus as many times.
+     */
+    private static void halveWhileEven(BigNat value, BigNat coefficient, BigNat mod) {
+        while (!value.isOdd()) {
+            value.shiftRight((short) 1);
+            if (coefficient.isOdd()) {
+                coefficient.resize((short) (mod.length() + 1));
+                coefficient.add(mod);
+                coefficient.shiftRight((short) 1);
+                coefficient.setSize(mod.length());
+            } else {
+                coefficient.shiftRight((short) 1);
+            }
+        }
+    }
+
+    /**
+     * Computes modular inversions of all values using Montgomery's trick. The results are stored into the values.
+     *
+     * All but one inversion are replaced by three modular multiplications per value. Prefix products are kept in
+     * TABLE_ARRAY, so the values are processed in chunks of as many as fit, each costing one inversion, and software
+     * exponentiation of the inversion runs without its window table. The values are reduced first, and a zero value
+     * fails with SW_BIGNAT_INVALIDMOD before any of them is inverted.
+     */
+    public static void batchModInv(BigNat[] values, BigNat mod) {
+        for (short i = 0; i < (short) values.length; i++) {
+            values[i].mod(mod);
+            if (values[i].isZero()) {
+                ISOException.throwIt(ReturnCodes.SW_BIGNAT_INVALIDMOD);
+            }
+        }
+        byte[] prefixes = mod.rm.TABLE_ARRAY;
+        short chunk = (short) (prefixes.length / mod.length());
+        if (chunk < 1) {
+            chunk = 1;
+        }
+
+        mod.rm.lock(prefixes);
+        for (short first = 0; first < (short) values.length; first += chunk) {
+            short count = (short) ((short) values.length - first);
+            batchModInv(values, first, count < chunk ? count : chunk, mod, prefixes);
+        }
+        mod.rm.unlock(prefixes);
+    }
+
+    /**
+     * Inverts count values starting at first. Slot i of prefixes holds the product of the first i + 1 values while
+     * the accumulator in the first value walks back from the inverted product of all of them. Every value is
+     * replaced by its inverse and the accumulator is advanced with the original value, which is stashed in its slot.
+     */
+    private static void batchModInv(BigNat[] values, short first, short count, BigNat mod, byte[] prefixes) {
+        short len = mod.length();
+        BigNat acc = values[first];
+        acc.resize(len);
+        if (count == 1) {
+            acc.modInv(mod);
+            return;
+        }
+
+        acc.prependZeros(len, prefixes, (short) 0);
+        for (short i = 1; i < count; i++) {
+            BigNat value = values[(short) (first + i)];
+            value.resize(len);
+            acc.modMult(value, mod);
+            if (i < (short) (count - 1)) {
+                acc.prependZeros(len, prefixes, (short) (i * len));
+            }
+        }
+        acc.modInv(mod);
+
+        for (short i = (short) (count - 1); i > 0; i--) {
+            BigNat value = values[(short) (first + i)];
+            short current = (short) (i * len);
+            short previous = (short) (current - len);
+            value.prependZeros(len, prefixes, current);
+            value.fromByteArray(prefixes, previous, len);
+            value.modMult(acc, mod);
+            value.prependZeros(len, prefixes, previous);
+            value.fromByteArray(prefixes, current, len);
+            acc.modMult(value, mod);
+            value.fromByteArray(prefixes, previous, len);
+        }
+    }
+
     /**
      * Multiplication of this and other modulo mod. The result is stored to this.
      */
@@ -353,42 +572,232 @@ public class BigNat extends BigNatInternal {
             return;
         }
 
+        if ((!OperationSupport.getInstance().RSA_SQ || OperationSupport.getInstance().RSA_EXTRA_MOD)
+                && mod.montgomery != null && (mod.special == null || OperationSupport.getInstance().RSA_SQ)
+                && isLesser(mod) && other.isLesser(mod)) {
+            montModMult(other, mod.montgomery);
+            return;
+        }
+
+        // ((a + b) / 2)^2 - ((a - b) / 2)^2 halves modulo mod, so it needs an odd modulus and squares on the engine
+        if (OperationSupport.getInstance().RSA_EXTRA_MOD || !mod.isOdd() || !engineModSq(mod)) {
+            plainModMult(other, mod);
+            return;
+        }
+
         result.lock();
-        if (!OperationSupport.getInstance().RSA_SQ || OperationSupport.getInstance().RSA_EXTRA_MOD) {
-            result.clone(this);
-            result.mult(other);
-            result.mod(mod);
-        } else {
-            result.setSize((short) (mod.length() + 1));
-            result.copy(this);
-            result.add(other);
-
-            short carry = (byte) 0;
-            if (result.isOdd()) {
-                if (result.isLesser(mod)) {
-                    carry = result.add(mod);
-                } else {
-                    result.subtract(mod);
-                }
+        result.setSize((short) (mod.length() + 1));
+        result.copy(this);
+        result.add(other);
+
+        short carry = (byte) 0;
+        if (result.isOdd()) {
+            if (result.isLesser(mod)) {
+                carry = result.add(mod);
+            } else {
+                result.subtract(mod);
             }
-            result.shiftRight((short) 1, carry);
-            result.resize(mod.length());
+        }
+        result.shiftRight((short) 1, carry);
+        result.resize(mod.length());
 
-            tmp.lock();
-            tmp.clone(result);
-            tmp.modSub(other, mod);
+        tmp.lock();
+        tmp.clone(result);
+        tmp.modSub(other, mod);
 
-            result.modSq(mod);
-            tmp.modSq(mod);
+        result.modSq(mod);
+        tmp.modSq(mod);
 
-            result.modSub(tmp, mod);
-            tmp.unlock();
+        result.modSub(tmp, mod);
+        tmp.unlock();
+        setSize(mod.length());
+        copy(result);
+        result.unlock();
+    }
+
+    /**
+     * Multiplication of this and other modulo mod by a product and a reduction. Unlike modMult on RSA_SQ cards, it
+     * never squares by modExp, so software exponentiation relies on it. The product uses the RSA engine only if it
+     * fits MAX_SQ_LENGTH. The result is stored to this.
+     */
+    private void plainModMult(BigNat other, BigNat mod) {
+        BigNat result = rm.BN_E;
+
+        result.lock();
+        result.clone(this);
+        short longer = length() > other.length() ? length() : other.length();
+        if (!OperationSupport.getInstance().RSA_SQ || (short) (2 * longer + 2) < rm.MAX_SQ_LENGTH) {
+            if (other == this) {
+                result.sq();
+            } else {
+                result.mult(other);
+            }
+        } else {
+            result.softwareMult(other == this ? result : other);
         }
+        result.mod(mod);
         setSize(mod.length());
         copy(result);
         result.unlock();
     }
 
+    /**
+     * Checks whether modSq by mod runs on the RSA engine, either with the fixed modulus or by modExp.
+     */
+    private boolean engineModSq(BigNat mod) {
+        OperationSupport os = OperationSupport.getInstance();
+        if (!os.RSA_SQ) {
+            return false;
+        }
+        return (rm.fixedMod != null && rm.fixedMod == mod)
+                || (os.RSA_EXP && (short) (mod.length() * 8) <= rm.MAX_EXP_BIT_LENGTH);
+    }
+
+    /**
+     * Multiplies this by other, or squares it if other is this, without the RSA engine.
+     */
+    private void softwareMult(BigNat other) {
+        if (other == this) {
+            super.sq();
+        } else {
+            super.mult(other);
+        }
+    }
+
+    /**
+     * Multiplication of this and other using the Montgomery context of the modulus. Both operands must be reduced.
+     */
+    private void montModMult(BigNat other, MontgomeryContext ctx) {
+        montMult(this, other, ctx.mod, ctx.n0Inv); // this * other * R^-1
+        montMult(this, ctx.rSquared, ctx.mod, ctx.n0Inv); // back from the Montgomery domain
+    }
+
+    /**
+     * Computes (this ^ exp % mod) in software using left-to-right sliding window exponentiation. Odd powers of
+     * this up to the window size are kept in the table array. If a caller holds the table array, e.g., batchModInv
+     * or ECPoint.normalizeAll while inverting, the window is a single bit and no table is used. Multiplications are
+     * done in the Montgomery domain if the modulus has a Montgomery context and by plainModMult otherwise.
+     *
+     * @param bits bit length of exp
+     */
+    private void slidingWindowModExp(BigNat exp, short bits, BigNat mod) {
+        BigNat power = rm.BN_H;
+        byte[] table = rm.TABLE_ARRAY;
+        short len = mod.length();
+
+        if (!isLesser(mod)) {
+            mod(mod);
+        }
+        if (bits == 0) {
+            setSize(len);
+            setValue((byte) 1);
+            return;
+        }
+        short window = rm.locker.isLocked(table) ? 1 : windowBits(bits);
+        while ((short) (len << (short) (window - 1)) > (short) table.length) {
+            --window;
+        }
+
+        power.lock();
+        power.setSize(len);
+        power.copy(this);
+        if (mod.montgomery != null) {
+            power.montMult(power, mod.montgomery.rSquared, mod, mod.montgomery.n0Inv);
+        }
+        if (window > 1) {
+            rm.lock(table);
+            power.prependZeros(len, table, (short) 0);
+            setSize(len);
+            copy(power);
+            windowMult(this, mod);
+            for (short offset = len; offset < (short) (len << (short) (window - 1)); offset += len) {
+                power.windowMult(this, mod);
+                power.prependZeros(len, table, offset);
+            }
+        }
+
+        short i = (short) (bits - 1);
+        boolean started = false;
+        while (i >= 0) {
+            if (!exp.testBit(i)) {
+                windowMult(this, mod);
+                --i;
+                continue;
+            }
+            // The window is the longest run of at most window bits from i that ends with a set bit
+            short j = (short) (i - window + 1);
+            if (j < 0) {
+                j = 0;
+            }
+            while (!exp.testBit(j)) {
+                ++j;
+            }
+            short index = 0;
+            for (short k = i; k > j; --k) {
+                index = (short) (index << 1);
+                if (exp.testBit(k)) {
+                    ++index;
+                }
+            }
+            if (window > 1) {
+                power.fromByteArray(table, (short) (index * len), len);
+            }
+            if (started) {
+                for (short k = i; k >= j; --k) {
+                    windowMult(this, mod);
+                }
+                windowMult(power, mod);
+            } else {
+                setSize(len);
+                copy(power);
+                started = true;
+            }
+            i = (short) (j - 1);
+        }
+        if (window > 1) {
+            rm.unlock(table);
+        }
+        power.unlock();
+
+        if (mod.montgomery != null) {
+            rm.BN_WORD.lock();
+            rm.BN_WORD.setValue((byte) 1);
+            montMult(this, rm.BN_WORD, mod, mod.montgomery.n0Inv);
+            rm.BN_WORD.unlock();
+        }
+    }
+
+    /**
+     * Multiplication step of slidingWindowModExp, in the Montgomery domain if the modulus has a Montgomery context
+     * and by plainModMult otherwise.
+     */
+    private void windowMult(BigNat other, BigNat mod) {
+        if (mod.montgomery != null) {
+            montMult(this, other, mod, mod.montgomery.n0Inv);
+        } else {
+            plainModMult(other, mod);
+        }
+    }
+
+    /**
+     * Window size of slidingWindowModExp for an exponent of the given bit length.
+     */
+    private static short windowBits(short bits) {
+        if (bits > (short) 671) {
+            return 6;
+        }
+        if (bits > (short) 239) {
+            return 5;
+        }
+        if (bits > (short) 79) {
+            return 4;
+        }
+        if (bits > (short) 23) {
+            return 3;
+        }
+        return bits > (short) 4 ? (short) 2 : (short) 1;
+    }
+
     /**
      * Computes modulo square of this BigNat.
      */
@@ -409,21 +818,229 @@ public class BigNat extends BigNatInternal {
      * @param p modulo
      */
     public boolean isQuadraticResidue(BigNat p) {
-        BigNat tmp = rm.BN_A;
         BigNat exp = rm.BN_B;
-        tmp.clone(this);
+
+        exp.lock();
         exp.clone(p);
-        exp.decrement();
-        exp.shiftRight((short) 1);
-        tmp.modExp(exp, p);
-        return tmp.isOne();
+        exp.shiftRight((short) 1); // (p - 1) / 2 for odd p
+        boolean result = isQuadraticResidue(p, exp);
+        exp.unlock();
+        return result;
+    }
+
+    /**
+     * Checks whether this BigNat is a quadratic residue modulo p using precomputed exponent of Euler's criterion.
+     * @param p modulo
+     * @param eulerExp (p - 1) / 2
+     */
+    public boolean isQuadraticResidue(BigNat p, BigNat eulerExp) {
+        BigNat tmp = rm.BN_A;
+
+        tmp.lock();
+        tmp.clone(this);
+        tmp.modExp(eulerExp, p);
+        boolean result = tmp.isOne();
+        tmp.unlock();
+        return result;
+    }
+
+    /**
+     * Determines the fastest square root algorithm for this BigNat used as a prime modulus.
+     *
+     * @return one of SQRT_P3MOD4, SQRT_P5MOD8 or SQRT_TONELLI_SHANKS
+     */
+    public byte sqrtAlgorithm() {
+        if (testBit((short) 1)) {
+            return SQRT_P3MOD4;
+        }
+        if (testBit((short) 2)) {
+            return SQRT_P5MOD8;
+        }
+        return SQRT_TONELLI_SHANKS;
+    }
+
+    /**
+     * Computes the exponent used by modSqrt with precomputed values for this BigNat used as a prime modulus.
+     *
+     * @param algorithm algorithm returned by sqrtAlgorithm()
+     * @param s S such that this - 1 = Q * 2^S with Q odd; used only by SQRT_TONELLI_SHANKS
+     * @param exp output BigNat
+     */
+    public void sqrtExponent(byte algorithm, short s, BigNat exp) {
+        exp.clone(this);
+        if (algorithm == SQRT_P3MOD4) {
+            exp.shiftRight((short) 2);
+            exp.increment(); // (p + 1) / 4 = (p >> 2) + 1 without overflowing p
+        } else if (algorithm == SQRT_P5MOD8) {
+            exp.shiftRight((short) 3); // (p - 5) / 8
+        } else {
+            exp.shiftRight((short) (s + 1)); // (Q - 1) / 2
+        }
     }
 
     /**
-     * Computes square root of provided BigNat which MUST be prime using Tonelli Shanks Algorithm. The result (one of
-     * the two roots) is stored to this.
+     * Computes square root of provided BigNat which MUST be prime. The result (one of the two roots) is stored to this.
      */
     public void modSqrt(BigNat p) {
+        modSqrt(p, p.sqrtAlgorithm());
+    }
+
+    /**
+     * Computes square root of provided BigNat which MUST be prime using a given algorithm. The result (one of the two
+     * roots) is stored to this.
+     *
+     * @param p prime modulus
+     * @param algorithm algorithm suitable for p as returned by p.sqrtAlgorithm()
+     */
+    public void modSqrt(BigNat p, byte algorithm) {
+        if (algorithm == SQRT_TONELLI_SHANKS) {
+            modSqrtTonelliShanks(p);
+            return;
+        }
+        BigNat exp = rm.BN_G;
+        BigNat v = rm.BN_B;
+
+        exp.lock();
+        p.sqrtExponent(algorithm, (short) 0, exp);
+        if (algorithm == SQRT_P3MOD4) {
+            modSqrt(p, algorithm, exp, null, (short) 0);
+            exp.unlock();
+            return;
+        }
+
+        // BN_G is required by modMult, so it has to be released before finishing Atkin's algorithm
+        mod(p);
+        if (isZero()) {
+            exp.unlock();
+            return;
+        }
+        v.lock();
+        atkinPower(p, exp, v);
+        exp.unlock();
+        modSqrtAtkin(p, v);
+        v.unlock();
+    }
+
+    /**
+     * Computes square root of provided BigNat which MUST be prime using values precomputed for the modulus. The
+     * result (one of the two roots) is stored to this. If this is not a quadratic residue, the result is undefined.
+     *
+     * @param p prime modulus
+     * @param algorithm algorithm suitable for p as returned by p.sqrtAlgorithm()
+     * @param exp exponent computed by p.sqrtExponent()
+     * @param c z^Q for a quadratic non-residue z, where p - 1 = Q * 2^S with Q odd; used only by SQRT_TONELLI_SHANKS
+     * @param s S; used only by SQRT_TONELLI_SHANKS
+     */
+    public void modSqrt(BigNat p, byte algorithm, BigNat exp, BigNat c, short s) {
+        mod(p);
+        if (isZero()) {
+            return;
+        }
+        if (algorithm == SQRT_P3MOD4) {
+            modExp(exp, p);
+        } else if (algorithm == SQRT_P5MOD8) {
+            BigNat v = rm.BN_B;
+
+            v.lock();
+            atkinPower(p, exp, v);
+            modSqrtAtkin(p, v);
+            v.unlock();
+        } else {
+            modSqrtTonelliShanks(p, exp, c, s);
+        }
+    }
+
+    /**
+     * Computes v = (2a)^((p - 5) / 8) for Atkin's algorithm.
+     *
+     * @param exp (p - 5) / 8
+     * @param v output BigNat
+     */
+    private void atkinPower(BigNat p, BigNat exp, BigNat v) {
+        v.clone(this);
+        v.modAdd(this, p);
+        v.modExp(exp, p);
+    }
+
+    /**
+     * Computes square root modulo p = 5 mod 8 using Atkin's algorithm.
+     *
+     * @param v (2a)^((p - 5) / 8) as computed by atkinPower
+     */
+    private void modSqrtAtkin(BigNat p, BigNat v) {
+        BigNat twice = rm.BN_A;
+        BigNat i = rm.BN_C;
+
+        // i = 2av^2 is a square root of -1
+        twice.lock();
+        twice.clone(this);
+        twice.modAdd(this, p);
+        i.lock();
+        i.clone(v);
+        i.modSq(p);
+        i.modMult(twice, p);
+        twice.unlock();
+        i.decrement();
+
+        // root = av(i - 1)
+        modMult(v, p);
+        modMult(i, p);
+        i.unlock();
+    }
+
+    /**
+     * Computes square root using Tonelli Shanks Algorithm with precomputed values. Both candidates are derived from
+     * a single exponentiation w = a^((Q - 1) / 2) as R = aw and t = Rw.
+     */
+    private void modSqrtTonelliShanks(BigNat p, BigNat exp, BigNat c, short s) {
+        BigNat z = rm.BN_A;
+        BigNat w = rm.BN_B;
+        BigNat t = rm.BN_C;
+        BigNat tmp = rm.BN_D;
+
+        w.lock();
+        w.clone(this);
+        w.modExp(exp, p);
+        modMult(w, p);
+        t.lock();
+        t.clone(w);
+        t.modMult(this, p);
+        w.unlock();
+
+        z.lock();
+        z.clone(c);
+        while (!t.isOne()) {
+            // Find the least 0 < i < s such that t^(2^i) = 1, no such i exists for a non-residue
+            tmp.lock();
+            tmp.clone(t);
+            short i = 0;
+            do {
+                tmp.modSq(p);
+                ++i;
+            } while (!tmp.isOne() && i < (short) (s - 1));
+            boolean residue = i < s && tmp.isOne();
+            tmp.unlock();
+            if (!residue) {
+                break;
+            }
+
+            // b = z^(2^(s - i - 1)), R = Rb, z = b^2, t = tb^2
+            for (s -= (short) (i + 1); s > 0; --s) {
+                z.modSq(p);
+            }
+            s = i;
+            modMult(z, p);
+            z.modSq(p);
+            t.modMult(z, p);
+        }
+        z.unlock();
+        t.unlock();
+    }
+
+    /**
+     * Computes square root using Tonelli Shanks Algorithm.
+     */
+    private void modSqrtTonelliShanks(BigNat p) {
         BigNat exp = rm.BN_G;
         BigNat p1 = rm.BN_B;
         BigNat q = rm.BN_C;
@@ -440,11 +1057,8 @@ public class BigNat extends BigNatInternal {
         q.lock();
         q.clone(p1);
 
-        short s = 0;
-        while (!q.isOdd()) {
-            ++s;
-            q.shiftRight((short) 1);
-        }
+        short s = q.trailingZeroBits();
+        q.shiftRight(s);
 
         // 2. Find the first quadratic non-residue z by brute-force search
         exp.lock();
@@ -518,12 +1132,7 @@ public class BigNat extends BigNatInternal {
             --s;
 
             tmp.lock();
-            tmp.setSize((short) 1);
-            tmp.setValue((byte) 1);
-            while(s != 0) {
-                tmp.shiftLeft((short) 1);
-                --s;
-            }
+            tmp.setPowerOfTwo(s);
             b.modExp(tmp, p);
             tmp.unlock();
             s = i;
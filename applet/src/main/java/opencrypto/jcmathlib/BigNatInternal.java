@@ -1,6 +1,7 @@
 package opencrypto.jcmathlib;
 
 import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
 import javacard.framework.Util;
 
 /**
@@ -10,11 +11,28 @@ import javacard.framework.Util;
  */
 public class BigNatInternal {
     protected final ResourceManager rm;
-    private static final short DIGIT_MASK = 0xff, DIGIT_LEN = 8, DOUBLE_DIGIT_LEN = 16, POSITIVE_DOUBLE_DIGIT_MASK = 0x7fff;
+    private static final short DIGIT_MASK = 0xff, DIGIT_LEN = 8;
+
+    // Source words of the terms s1, ..., s9 of the P-256 reduction for each result word, -1 for zero
+    private static final byte[] P256_WORDS = {
+            0, 1, 2, 3, 4, 5, 6, 7,
+            -1, -1, -1, 11, 12, 13, 14, 15,
+            -1, -1, -1, 12, 13, 14, 15, -1,
+            8, 9, 10, -1, -1, -1, 14, 15,
+            9, 10, 11, 13, 14, 15, 13, 8,
+            11, 12, 13, -1, -1, -1, 8, 10,
+            12, 13, 14, 15, -1, -1, 9, 11,
+            13, 14, 15, 8, 9, 10, -1, 12,
+            14, 15, -1, 9, 10, 11, -1, 13
+    };
+    private static final byte[] P256_COEFFICIENTS = {1, 2, 2, 1, 1, -1, -1, -1, -1};
 
     private byte[] value;
     private short size; // The current size of internal representation in bytes.
     private short offset;
+    // Index of the most significant non-zero digit plus one, value.length + 1 if zero, 0 if not known. Allocated
+    // like value, so it costs no EEPROM writes; null for a persistent BigNat, which scans its digits every time.
+    private final short[] msd;
 
     /**
      * Construct a BigNat of at least a given size in bytes.
@@ -24,6 +42,8 @@ public class BigNatInternal {
         this.offset = 1;
         this.size = size;
         this.value = rm.memAlloc.allocateByteArray((short) (size + 1), allocatorType);
+        this.msd = allocatorType == JCSystem.MEMORY_TYPE_PERSISTENT ? null
+                : rm.memAlloc.allocateShortArray((short) 1, allocatorType);
     }
 
     /**
@@ -38,6 +58,7 @@ public class BigNatInternal {
         short read = length <= (short) value.length ? length : (short) value.length;
         setSize(read);
         Util.arrayCopyNonAtomic(source, sourceOffset, value, offset, size);
+        setMsd((short) 0);
         return size;
     }
 
@@ -73,8 +94,12 @@ public class BigNatInternal {
         if (newSize < 0 || newSize > value.length) {
             ISOException.throwIt(ReturnCodes.SW_BIGNAT_RESIZETOLONGER);
         }
+        short newOffset = (short) (value.length - newSize);
+        if (newOffset < offset || knownMsd() <= newOffset) {
+            setMsd((short) 0); // digits were exposed or the most significant one was trimmed
+        }
         size = newSize;
-        offset = (short) (value.length - size);
+        offset = newOffset;
     }
 
     /**
@@ -100,9 +125,11 @@ public class BigNatInternal {
         }
 
         short diff = (short) (newSize - size);
+        short known = knownMsd();
         setSize(newSize);
         if (diff > 0) {
             Util.arrayFillNonAtomic(value, offset, diff, (byte) 0);
+            setMsd(known);
         }
     }
 
@@ -137,18 +164,66 @@ public class BigNatInternal {
      * Remove leading zeroes from this BigNat and decrease its byte size accordingly.
      */
     public void shrink() {
-        short i;
-        for (i = offset; i < value.length; i++) { // Find first non-zero byte
-            if (value[i] != 0) {
-                break;
+        setSize(significantLength());
+    }
+
+    /**
+     * Get the number of bytes of this BigNat without leading zeroes. The position of the most significant non-zero
+     * byte is cached, so repeated calls on an unchanged value do not scan the leading zeroes again.
+     *
+     * @return size in bytes without leading zeroes, zero for zero
+     */
+    public short significantLength() {
+        return (short) (value.length - msdIndex());
+    }
+
+    /**
+     * Get the number of bits of this BigNat without leading zeroes.
+     *
+     * @return bit length, zero for zero
+     */
+    public short bitLength() {
+        short i = msdIndex();
+        short bits = (short) ((short) (value.length - i) << 3);
+        if (bits != 0) {
+            for (short digit = (short) (value[i] & DIGIT_MASK); digit < (short) 0x80; digit <<= 1) {
+                --bits;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Get the index of the most significant non-zero digit, or value.length if this is zero. Computed on demand after
+     * any change of the value.
+     */
+    private short msdIndex() {
+        short known = knownMsd();
+        if (known == 0) {
+            short i = offset;
+            while (i < (short) value.length && value[i] == 0) {
+                i++;
             }
+            known = (short) (i + 1);
+            setMsd(known);
         }
+        return (short) (known - 1);
+    }
+
+    /**
+     * Get the cached index of the most significant digit plus one, 0 if it is not known or not cached.
+     */
+    private short knownMsd() {
+        return msd == null ? 0 : msd[0];
+    }
 
-        short newSize = (short) (value.length - i);
-        if (newSize < 0) {
-            ISOException.throwIt(ReturnCodes.SW_BIGNAT_INVALIDRESIZE);
+    /**
+     * Cache the index of the most significant digit plus one, 0 forgets it after a change of the value.
+     */
+    private void setMsd(short known) {
+        if (msd != null) {
+            msd[0] = known;
         }
-        resize(newSize);
     }
 
     /**
@@ -156,6 +231,7 @@ public class BigNatInternal {
      */
     public void zero() {
         Util.arrayFillNonAtomic(value, offset, size, (byte) 0);
+        setMsd((short) (value.length + 1));
     }
 
     /**
@@ -163,6 +239,7 @@ public class BigNatInternal {
      */
     public void erase() {
         Util.arrayFillNonAtomic(value, (short) 0, (short) value.length, (byte) 0);
+        setMsd((short) (value.length + 1));
     }
 
     /**
@@ -171,6 +248,7 @@ public class BigNatInternal {
     public void setValue(byte newValue) {
         zero();
         value[(short) (value.length - 1)] = (byte) (newValue & DIGIT_MASK);
+        setMsd((short) 0);
     }
 
     /**
@@ -180,6 +258,7 @@ public class BigNatInternal {
         zero();
         value[(short) (value.length - 1)] = (byte) (newValue & DIGIT_MASK);
         value[(short) (value.length - 2)] = (byte) ((short) (newValue >> 8) & DIGIT_MASK);
+        setMsd((short) 0);
     }
 
     /**
@@ -208,6 +287,7 @@ public class BigNatInternal {
             }
         }
         Util.arrayCopyNonAtomic(other.value, otherStart, value, thisStart, len);
+        setMsd((short) 0);
     }
 
     /**
@@ -223,43 +303,46 @@ public class BigNatInternal {
         if (diff > 0) {
             Util.arrayFillNonAtomic(value, (short) 0, diff, (byte) 0);
         }
-        setSize(other.size);
+        short known = other.knownMsd();
+        setMsd(known == 0 ? 0 : (short) (diff + known - other.offset));
+        offset = diff;
+        size = other.size;
+    }
+
+    /**
+     * Replaces this by other if mask is 0xff and keeps it if mask is 0. Every byte is read and written in both cases.
+     * Both BigNats must have the same size.
+     */
+    public void select(BigNatInternal other, byte mask) {
+        short otherIndex = other.offset;
+        for (short i = offset; i < (short) (offset + size); ++i) {
+            value[i] = (byte) ((value[i] & ~mask) | (other.value[otherIndex] & mask));
+            ++otherIndex;
+        }
+        setMsd((short) 0);
     }
 
     /**
      * Test equality with zero.
      */
     public boolean isZero() {
-        for (short i = offset; i < value.length; i++) {
-            if (value[i] != 0) {
-                return false; // CTO
-            }
-        }
-        return true;
+        return msdIndex() == (short) value.length;
     }
 
     /**
      * Test equality with one.
      */
     public boolean isOne() {
-        for (short i = offset; i < (short) (value.length - 1); i++) {
-            if (value[i] != 0) {
-                return false; // CTO
-            }
-        }
-        return value[(short) (value.length - 1)] == (byte) 0x01;
+        short last = (short) (value.length - 1);
+        return msdIndex() == last && value[last] == (byte) 0x01;
     }
 
     /**
      * Test equality with two.
      */
     public boolean isTwo() {
-        for (short i = offset; i < (short) (value.length - 1); i++) {
-            if (value[i] != 0) {
-                return false; // CTO
-            }
-        }
-        return value[(short) (value.length - 1)] == (byte) 0x02;
+        short last = (short) (value.length - 1);
+        return msdIndex() == last && value[last] == (byte) 0x02;
     }
 
     /**
@@ -273,29 +356,16 @@ public class BigNatInternal {
      * Returns true if this BigNat is lesser than the other.
      */
     public boolean isLesser(BigNatInternal other) {
-        return isLesser(other, (short) 0, (short) 0);
-    }
-
-    /**
-     * Returns true if this is lesser than other shifted by a given number of digits.
-     */
-    private boolean isLesser(BigNatInternal other, short shift, short start) {
-        short j = (short) (other.size + shift - size + start + other.offset);
-
-        for (short i = (short) (start + other.offset); i < j; ++i) {
-            if (other.value[i] != 0) {
-                return true;
-            }
+        short len = significantLength();
+        short otherLen = other.significantLength();
+        if (len != otherLen) {
+            return len < otherLen;
         }
-
-        for (short i = (short) (start + offset); i < (short) value.length; i++, j++) {
+        for (short i = msdIndex(), j = other.msdIndex(); i < (short) value.length; i++, j++) {
             short thisValue = (short) (value[i] & DIGIT_MASK);
-            short otherValue = (j >= other.offset && j < (short) other.value.length) ? (short) (other.value[j] & DIGIT_MASK) : (short) 0;
-            if (thisValue < otherValue) {
-                return true; // CTO
-            }
-            if (thisValue > otherValue) {
-                return false;
+            short otherValue = (short) (other.value[j] & DIGIT_MASK);
+            if (thisValue != otherValue) {
+                return thisValue < otherValue;
             }
         }
         return false;
@@ -308,30 +378,29 @@ public class BigNatInternal {
      * @return true if this and other have the same value, false otherwise.
      */
     public boolean equals(BigNatInternal other) {
-        short diff = (short) (size - other.size);
-
-        if (diff == 0) {
-            return Util.arrayCompare(value, offset, other.value, other.offset, size) == 0;
-        }
-
-
-        if (diff < 0) {
-            short end = (short) (other.offset - diff);
-            for (short i = other.offset; i < end; ++i) {
-                if (other.value[i] != (byte) 0) {
-                    return false;
-                }
-            }
-            return Util.arrayCompare(value, (short) 0, other.value, end, size) == 0;
+        short len = significantLength();
+        if (len != other.significantLength()) {
+            return false;
         }
+        return Util.arrayCompare(value, msdIndex(), other.value, other.msdIndex(), len) == 0;
+    }
 
-        short end = diff;
-        for (short i = (short) 0; i < end; ++i) {
-            if (value[i] != (byte) 0) {
-                return false;
-            }
+    /**
+     * Value equality check without early exit. The running time depends only on the sizes of this and other, not on
+     * their values, so it can compare secrets.
+     *
+     * @param other BigNat to compare
+     * @return true if this and other have the same value, false otherwise.
+     */
+    public boolean equalsConstantTime(BigNatInternal other) {
+        short len = size > other.size ? size : other.size;
+        short diff = 0;
+        for (short i = 1; i <= len; ++i) {
+            short thisValue = i <= size ? (short) (value[(short) (value.length - i)] & DIGIT_MASK) : 0;
+            short otherValue = i <= other.size ? (short) (other.value[(short) (other.value.length - i)] & DIGIT_MASK) : 0;
+            diff |= (short) (thisValue ^ otherValue);
         }
-        return Util.arrayCompare(value, end, other.value, other.offset, other.size) == 0;
+        return diff == 0;
     }
 
     /**
@@ -345,6 +414,7 @@ public class BigNatInternal {
                 break; // CTO
             }
         }
+        setMsd((short) 0);
     }
 
     /**
@@ -359,6 +429,7 @@ public class BigNatInternal {
                 break; // CTO
             }
         }
+        setMsd((short) 0);
     }
 
     /**
@@ -390,9 +461,19 @@ public class BigNatInternal {
      * This must be large enough to fit the results.
      */
     private byte add(BigNatInternal other, short shift, short multiplier) {
+        setMsd((short) 0);
         short acc = 0;
         short i = (short) (other.size - 1 + other.offset);
         short j = (short) (size - 1 - shift + offset);
+        if (multiplier == 1) {
+            // Two digits at once, the carry of a + b + c shows as an unsigned wrap of the 16-bit sum below a
+            for (; i > other.offset && j > offset; i -= 2, j -= 2) {
+                short a = Util.getShort(value, (short) (j - 1));
+                short sum = (short) ((short) (a + Util.getShort(other.value, (short) (i - 1))) + acc);
+                acc = (short) (isLesserUnsigned(sum, a) || (acc != 0 && sum == a) ? 1 : 0);
+                Util.setShort(value, (short) (j - 1), sum);
+            }
+        }
         for (; i >= other.offset && j >= offset; i--, j--) {
             acc += (short) ((short) (value[j] & DIGIT_MASK) + (short) (multiplier * (other.value[i] & DIGIT_MASK)));
 
@@ -422,11 +503,23 @@ public class BigNatInternal {
     /**
      * Computes other * multiplier, shifts the results by shift and subtract it from this.
      * Multiplier must be in range [0; 2^8 - 1].
+     *
+     * @return non-zero if the result is negative, i.e., the subtraction wrapped around
      */
-    private void subtract(BigNatInternal other, short shift, short multiplier) {
+    private short subtract(BigNatInternal other, short shift, short multiplier) {
+        setMsd((short) 0);
         short acc = 0;
         short i = (short) (size - 1 - shift + offset);
         short j = (short) (other.size - 1 + other.offset);
+        if (multiplier == 1) {
+            // Two digits at once, a - b - c borrows if a < b or the borrow makes equal digits wrap
+            for (; i > offset && j > other.offset; i -= 2, j -= 2) {
+                short a = Util.getShort(value, (short) (i - 1));
+                short b = Util.getShort(other.value, (short) (j - 1));
+                Util.setShort(value, (short) (i - 1), (short) ((short) (a - b) - acc));
+                acc = (short) (isLesserUnsigned(a, b) || (acc != 0 && a == b) ? 1 : 0);
+            }
+        }
         for (; i >= offset && j >= other.offset; i--, j--) {
             acc += (short) (multiplier * (other.value[j] & DIGIT_MASK));
             short tmp = (short) ((value[i] & DIGIT_MASK) - (acc & DIGIT_MASK));
@@ -447,23 +540,439 @@ public class BigNatInternal {
                 acc++;
             }
         }
+        return acc;
     }
 
     /**
-     * Multiplies this and other using software multiplications and stores results into this.
+     * Compares two 16-bit digits as unsigned values.
+     *
+     * @return true if a < b
+     */
+    private static boolean isLesserUnsigned(short a, short b) {
+        return (short) (a ^ (short) 0x8000) < (short) (b ^ (short) 0x8000);
+    }
+
+    /**
+     * Multiplies this and other using software multiplications and stores results into this. Other may be this.
      */
     public void mult(BigNatInternal other) {
         BigNatInternal tmp = rm.BN_F;
         tmp.lock();
         tmp.clone(this);
-        setSizeToMax(true);
-        for (short i = (short) (other.value.length - 1); i >= other.offset; i--) {
-            add(tmp, (short) (other.value.length - 1 - i), (short) (other.value[i] & DIGIT_MASK));
+        if (other == this) {
+            other = tmp;
+        }
+        short threshold = OperationSupport.getInstance().KARATSUBA_THRESHOLD;
+        if (threshold > 1 && tmp.size >= threshold && other.size >= threshold
+                && (short) (tmp.size + other.size) <= (short) value.length) {
+            karatsubaMult(tmp, other);
+        } else {
+            setSizeToMax(true);
+            for (short i = (short) (other.value.length - 1); i >= other.offset; i--) {
+                add(tmp, (short) (other.value.length - 1 - i), (short) (other.value[i] & DIGIT_MASK));
+            }
         }
         shrink();
         tmp.unlock();
     }
 
+    /**
+     * Computes this * this and stores the result into this. Every cross product a_i a_j with i < j is computed
+     * once, the sum of them is doubled and the squares of the digits are added in a single final pass, which takes
+     * about half of the digit multiplications of mult.
+     */
+    public void sq() {
+        shrink();
+        byte[] square = rm.ARRAY_B;
+        short n = size;
+        short len = (short) (2 * n);
+        if (len > (short) value.length || len > (short) square.length) {
+            mult(this);
+            return;
+        }
+
+        rm.lock(square);
+        Util.arrayFillNonAtomic(square, (short) 0, len, (byte) 0);
+        short last = (short) (value.length - 1);
+        for (short i = last; i > offset; i--) {
+            // a_i times the more significant digits, starting at the weight of a_i a_(i + 1)
+            short dstLast = (short) (len - 2 - (short) (2 * (short) (last - i)));
+            multDigits(square, (short) 0, dstLast, value, offset, (short) (i - offset), value, i, (short) 1);
+        }
+
+        short carry = 0;
+        short shifted = 0;
+        for (short t = 0; t < len; t++) {
+            short digit = (short) (value[(short) (last - (short) (t >> 1))] & DIGIT_MASK);
+            short diagonal = (short) (digit * digit);
+            if ((short) (t & 1) != 0) {
+                diagonal = (short) ((short) (diagonal >> DIGIT_LEN) & DIGIT_MASK);
+            } else {
+                diagonal &= DIGIT_MASK;
+            }
+            short i = (short) (len - 1 - t);
+            short current = (short) (square[i] & DIGIT_MASK);
+            short sum = (short) ((short) ((short) ((short) (current << 1) & DIGIT_MASK) | shifted) + diagonal + carry);
+            shifted = (short) (current >> 7);
+            square[i] = (byte) (sum & DIGIT_MASK);
+            carry = (short) (sum >> DIGIT_LEN);
+        }
+
+        setSize(len);
+        Util.arrayCopyNonAtomic(square, (short) 0, value, offset, len);
+        setMsd((short) 0);
+        rm.unlock(square);
+        shrink();
+    }
+
+    /**
+     * Computes x * y with one level of Karatsuba and stores it into this at its maximum size. With x = x_1 B + x_0
+     * and y = y_1 B + y_0, the product is x_1 y_1 B^2 + ((x_0 + x_1)(y_0 + y_1) - x_1 y_1 - x_0 y_0) B + x_0 y_0,
+     * which takes three half-size schoolbook products instead of four. This must not be x or y and must fit x * y.
+     */
+    private void karatsubaMult(BigNatInternal x, BigNatInternal y) {
+        byte[] mid = rm.ARRAY_B;
+        short len = (short) value.length;
+        short m = (short) ((x.size < y.size ? x.size : y.size) >> 1); // length of x_0 and y_0
+        short x1Len = (short) (x.size - m);
+        short y1Len = (short) (y.size - m);
+        short sxLen = (short) ((x1Len > m ? x1Len : m) + 1);
+        short syLen = (short) ((y1Len > m ? y1Len : m) + 1);
+        short midLen = (short) (sxLen + syLen);
+        short x0Off = (short) (x.offset + x1Len);
+        short y0Off = (short) (y.offset + y1Len);
+
+        rm.lock(mid);
+        Util.arrayFillNonAtomic(mid, (short) 0, midLen, (byte) 0);
+
+        // (x_0 + x_1)(y_0 + y_1), with both sums kept in this until the products overwrite it
+        Util.arrayFillNonAtomic(value, (short) 0, midLen, (byte) 0);
+        addDigits(value, (short) 0, sxLen, x.value, x0Off, m);
+        addDigits(value, (short) 0, sxLen, x.value, x.offset, x1Len);
+        addDigits(value, sxLen, syLen, y.value, y0Off, m);
+        addDigits(value, sxLen, syLen, y.value, y.offset, y1Len);
+        multDigits(mid, (short) 0, (short) (midLen - 1), value, (short) 0, sxLen, value, sxLen, syLen);
+
+        // x_0 y_0 and x_1 y_1 do not overlap
+        setSizeToMax(true);
+        multDigits(value, (short) 0, (short) (len - 1), x.value, x0Off, m, y.value, y0Off, m);
+        multDigits(value, (short) 0, (short) (len - 1 - 2 * m), x.value, x.offset, x1Len, y.value, y.offset, y1Len);
+
+        short z2Len = (short) (x1Len + y1Len);
+        subtractDigits(mid, (short) 0, midLen, value, (short) (len - 2 * m), (short) (2 * m));
+        subtractDigits(mid, (short) 0, midLen, value, (short) (len - 2 * m - z2Len), z2Len);
+        addDigits(value, (short) 0, (short) (len - m), mid, (short) 0, midLen);
+        setMsd((short) 0);
+        rm.unlock(mid);
+    }
+
+    /**
+     * Adds the digits a[aOffset, aOffset + aLen) to the digits dst[dstOffset, dstOffset + dstLen), both aligned to
+     * their least significant digit. The final carry is dropped.
+     */
+    private static void addDigits(byte[] dst, short dstOffset, short dstLen, byte[] a, short aOffset, short aLen) {
+        short acc = 0;
+        short i = (short) (dstOffset + dstLen - 1);
+        short j = (short) (aOffset + aLen - 1);
+        for (; j >= aOffset && i >= dstOffset; i--, j--) {
+            acc += (short) ((short) (dst[i] & DIGIT_MASK) + (short) (a[j] & DIGIT_MASK));
+            dst[i] = (byte) (acc & DIGIT_MASK);
+            acc = (short) ((acc >> DIGIT_LEN) & DIGIT_MASK);
+        }
+        for (; acc != 0 && i >= dstOffset; i--) {
+            acc += (short) (dst[i] & DIGIT_MASK);
+            dst[i] = (byte) (acc & DIGIT_MASK);
+            acc = (short) ((acc >> DIGIT_LEN) & DIGIT_MASK);
+        }
+    }
+
+    /**
+     * Subtracts the digits a[aOffset, aOffset + aLen) from the digits dst[dstOffset, dstOffset + dstLen), both
+     * aligned to their least significant digit. The final borrow is dropped.
+     */
+    private static void subtractDigits(byte[] dst, short dstOffset, short dstLen, byte[] a, short aOffset, short aLen) {
+        short borrow = 0;
+        short i = (short) (dstOffset + dstLen - 1);
+        short j = (short) (aOffset + aLen - 1);
+        for (; j >= aOffset && i >= dstOffset; i--, j--) {
+            short tmp = (short) ((short) ((short) (dst[i] & DIGIT_MASK) - (short) (a[j] & DIGIT_MASK)) - borrow);
+            dst[i] = (byte) (tmp & DIGIT_MASK);
+            borrow = (short) (tmp < 0 ? 1 : 0);
+        }
+        for (; borrow != 0 && i >= dstOffset; i--) {
+            short tmp = (short) ((short) (dst[i] & DIGIT_MASK) - borrow);
+            dst[i] = (byte) (tmp & DIGIT_MASK);
+            borrow = (short) (tmp < 0 ? 1 : 0);
+        }
+    }
+
+    /**
+     * Adds the schoolbook product of digits a[aOffset, aOffset + aLen) and b[bOffset, bOffset + bLen) to
+     * dst[dstFirst, dstLast], with the least significant digit of the product at dst[dstLast]. Digits of the result
+     * which do not fit are dropped, i.e., the sum is computed modulo 2^(8 * (dstLast - dstFirst + 1)).
+     */
+    private static void multDigits(byte[] dst, short dstFirst, short dstLast, byte[] a, short aOffset, short aLen, byte[] b, short bOffset, short bLen) {
+        for (short j = (short) (bOffset + bLen - 1); j >= bOffset && dstLast >= dstFirst; j--, dstLast--) {
+            short bj = (short) (b[j] & DIGIT_MASK);
+            if (bj == 0) {
+                continue;
+            }
+            short acc = 0;
+            short k = dstLast;
+            for (short i = (short) (aOffset + aLen - 1); i >= aOffset && k >= dstFirst; i--, k--) {
+                acc += (short) ((short) (dst[k] & DIGIT_MASK) + (short) (bj * (a[i] & DIGIT_MASK)));
+                dst[k] = (byte) (acc & DIGIT_MASK);
+                acc = (short) ((acc >> DIGIT_LEN) & DIGIT_MASK);
+            }
+            for (; acc != 0 && k >= dstFirst; k--) {
+                acc += (short) (dst[k] & DIGIT_MASK);
+                dst[k] = (byte) (acc & DIGIT_MASK);
+                acc = (short) ((acc >> DIGIT_LEN) & DIGIT_MASK);
+            }
+        }
+    }
+
+    /**
+     * Reduces this modulo a pseudo-Mersenne modulus 2^(8k) - c. The value H * 2^(8k) + L is replaced by the
+     * congruent L + H * c until it fits into k digits, followed by a final subtraction. The size of this is kept.
+     *
+     * @param mod modulus without leading zeroes
+     * @param c 2^(8k) - mod, much shorter than mod
+     * @return false if the value is too long for the scratch array and was not reduced
+     */
+    protected boolean pseudoMersenneReduce(BigNatInternal mod, BigNatInternal c) {
+        short k = mod.size;
+        if (size > k) {
+            byte[] q = rm.ARRAY_B;
+            short end = (short) q.length;
+            short hLen = (short) (size - k);
+            short w = (short) (end - 1 - ((short) (hLen + c.size) > k ? (short) (hLen + c.size) : k));
+            if (w < hLen) {
+                return false;
+            }
+
+            // The folded value W is kept right-aligned in q starting at w, the high digits are moved to its start
+            rm.lock(q);
+            Util.arrayFillNonAtomic(q, w, (short) (end - k - w), (byte) 0);
+            Util.arrayCopyNonAtomic(value, (short) (offset + hLen), q, (short) (end - k), k);
+            multDigits(q, w, (short) (end - 1), value, offset, hLen, c.value, c.offset, c.size);
+            while (true) {
+                while (w < (short) (end - k) && q[w] == 0) {
+                    ++w;
+                }
+                hLen = (short) (end - k - w);
+                if (hLen == 0) {
+                    break;
+                }
+                Util.arrayCopyNonAtomic(q, w, q, (short) 0, hLen);
+                Util.arrayFillNonAtomic(q, w, hLen, (byte) 0);
+                short next = (short) (end - 1 - ((short) (hLen + c.size) > k ? (short) (hLen + c.size) : k));
+                if (next < w) {
+                    Util.arrayFillNonAtomic(q, next, (short) (w - next), (byte) 0);
+                    w = next;
+                }
+                multDigits(q, w, (short) (end - 1), q, (short) 0, hLen, c.value, c.offset, c.size);
+            }
+            Util.arrayFillNonAtomic(value, offset, (short) (size - k), (byte) 0);
+            Util.arrayCopyNonAtomic(q, (short) (end - k), value, (short) (value.length - k), k);
+            setMsd((short) 0);
+            rm.unlock(q);
+        }
+
+        while (!isLesser(mod)) {
+            subtract(mod);
+        }
+        return true;
+    }
+
+    /**
+     * Reduces this modulo the NIST P-256 prime using the sum of its 32-bit words given in FIPS 186-4, D.2.3. The
+     * size of this is kept.
+     *
+     * @param mod the P-256 prime
+     * @return false if the value is longer than 64 digits and was not reduced
+     */
+    protected boolean p256Reduce(BigNatInternal mod) {
+        if (size > (short) 64) {
+            return false;
+        }
+        if (size > (short) 32) {
+            byte[] q = rm.ARRAY_B;
+
+            // q[0, 33) = s1 + 2 s2 + 2 s3 + s4 + s5 - s6 - s7 - s8 - s9 as a two's complement number
+            rm.lock(q);
+            short acc = 0;
+            for (short i = 0; i < (short) 32; i++) {
+                short word = (short) (i >> 2);
+                short digit = (short) (i & 3);
+                for (short t = 0; t < (short) P256_COEFFICIENTS.length; t++) {
+                    short source = P256_WORDS[(short) ((short) (t << 3) + word)];
+                    if (source >= 0) {
+                        acc += (short) (P256_COEFFICIENTS[t] * digitAt((short) ((short) (source << 2) + digit)));
+                    }
+                }
+                q[(short) (32 - i)] = (byte) (acc & DIGIT_MASK);
+                acc = (short) (acc >> DIGIT_LEN);
+            }
+            q[0] = (byte) acc;
+
+            // The sum lies in (-4 mod, 7 * 2^256)
+            while (q[0] < 0) {
+                addDigits(q, (short) 0, (short) 33, mod.value, mod.offset, mod.size);
+            }
+            while (q[0] != 0) {
+                subtractDigits(q, (short) 0, (short) 33, mod.value, mod.offset, mod.size);
+            }
+            Util.arrayFillNonAtomic(value, offset, (short) (size - 32), (byte) 0);
+            Util.arrayCopyNonAtomic(q, (short) 1, value, (short) (value.length - 32), (short) 32);
+            setMsd((short) 0);
+            rm.unlock(q);
+        }
+
+        while (!isLesser(mod)) {
+            subtract(mod);
+        }
+        return true;
+    }
+
+    /**
+     * Get the digit at a given index counted from the least significant one, zero above the size of this.
+     */
+    private short digitAt(short index) {
+        short i = (short) (value.length - 1 - index);
+        return i < offset ? 0 : (short) (value[i] & DIGIT_MASK);
+    }
+
+    /**
+     * Computes Montgomery product a * b * R^-1 mod mod, where R = 2^(8 * mod.length()), and stores it into this.
+     * Operands must be reduced modulo mod, which must be odd. This may be the same object as a or b.
+     *
+     * @param n0Inv precomputed -mod^-1 mod 2^8
+     */
+    protected void montMult(BigNatInternal a, BigNatInternal b, BigNatInternal mod, byte n0Inv) {
+        byte[] t = rm.ARRAY_B; // little-endian accumulator of mod.size + 2 digits
+        short n = mod.size;
+        short modLast = (short) (mod.value.length - 1);
+        short inv = (short) (n0Inv & DIGIT_MASK);
+
+        rm.lock(t);
+        Util.arrayFillNonAtomic(t, (short) 0, (short) (n + 2), (byte) 0);
+        for (short i = 0; i < n; i++) {
+            short ai = i < a.size ? (short) (a.value[(short) (a.value.length - 1 - i)] & DIGIT_MASK) : 0;
+
+            // t += ai * b
+            short acc = 0;
+            short j;
+            for (j = 0; j < n; j++) {
+                short bj = j < b.size ? (short) (b.value[(short) (b.value.length - 1 - j)] & DIGIT_MASK) : 0;
+                acc += (short) ((short) (t[j] & DIGIT_MASK) + (short) (ai * bj));
+                t[j] = (byte) (acc & DIGIT_MASK);
+                acc = (short) ((acc >> DIGIT_LEN) & DIGIT_MASK);
+            }
+            acc += (short) (t[n] & DIGIT_MASK);
+            t[n] = (byte) (acc & DIGIT_MASK);
+            t[(short) (n + 1)] = (byte) ((acc >> DIGIT_LEN) & DIGIT_MASK);
+
+            // t = (t + m * mod) / 2^8, where m makes the lowest digit vanish
+            short m = (short) ((short) ((t[0] & DIGIT_MASK) * inv) & DIGIT_MASK);
+            acc = (short) ((short) (t[0] & DIGIT_MASK) + (short) (m * (mod.value[modLast] & DIGIT_MASK)));
+            acc = (short) ((acc >> DIGIT_LEN) & DIGIT_MASK);
+            for (j = 1; j < n; j++) {
+                acc += (short) ((short) (t[j] & DIGIT_MASK) + (short) (m * (mod.value[(short) (modLast - j)] & DIGIT_MASK)));
+                t[(short) (j - 1)] = (byte) (acc & DIGIT_MASK);
+                acc = (short) ((acc >> DIGIT_LEN) & DIGIT_MASK);
+            }
+            acc += (short) (t[n] & DIGIT_MASK);
+            t[(short) (n - 1)] = (byte) (acc & DIGIT_MASK);
+            acc = (short) ((short) ((acc >> DIGIT_LEN) & DIGIT_MASK) + (short) (t[(short) (n + 1)] & DIGIT_MASK));
+            t[n] = (byte) (acc & DIGIT_MASK);
+            t[(short) (n + 1)] = 0;
+        }
+
+        setSize(n);
+        for (short j = 0; j < n; j++) {
+            value[(short) (value.length - 1 - j)] = t[j];
+        }
+        setMsd((short) 0);
+        if (t[n] != 0 || !isLesser(mod)) {
+            subtract(mod);
+        }
+        rm.unlock(t);
+    }
+
+    /**
+     * Reduces this modulo mod using Barrett reduction with the precomputed mu = floor(2^(16k) / mod), where k is the
+     * number of significant digits of mod. Takes two multiplications and at most two subtractions of mod. The
+     * size of this is kept.
+     *
+     * @return false if this is longer than 2k digits or the scratch space is too small, this is unchanged then
+     */
+    protected boolean barrettReduce(BigNatInternal mod, BigNatInternal mu, short k) {
+        if (size > (short) (2 * k) || (short) value.length < (short) (k + 1)) {
+            return false;
+        }
+        short q1Len = (short) (size - k + 1);
+        if (q1Len <= 0) {
+            return true; // this < 2^(8(k - 1)) <= mod
+        }
+        byte[] q = rm.ARRAY_B;
+        short q2Len = (short) (q1Len + mu.size);
+        if (q2Len > (short) q.length) {
+            return false;
+        }
+
+        // q3 = floor(floor(this / 2^(8(k - 1))) * mu / 2^(8(k + 1))) underestimates the quotient by at most 2
+        rm.lock(q);
+        Util.arrayFillNonAtomic(q, (short) 0, q2Len, (byte) 0);
+        multDigits(q, (short) 0, (short) (q2Len - 1), value, offset, q1Len, mu.value, mu.offset, mu.size);
+        short q3Len = (short) (q2Len - k - 1);
+
+        // this = (this - q3 * mod) mod 2^(8(k + 1)), the low digits of the product replace those of q2
+        short originalSize = size;
+        if (size < (short) (k + 1)) {
+            resize((short) (k + 1));
+        } else {
+            Util.arrayFillNonAtomic(value, offset, (short) (size - k - 1), (byte) 0);
+            setMsd((short) 0);
+        }
+        if (q3Len > 0) {
+            Util.arrayFillNonAtomic(q, q3Len, (short) (k + 1), (byte) 0);
+            multDigits(q, q3Len, (short) (q2Len - 1), q, (short) 0, q3Len, mod.value, (short) (mod.value.length - k), k);
+            subtractDigits(value, (short) (value.length - k - 1), (short) (k + 1), q, q3Len, (short) (k + 1));
+            setMsd((short) 0);
+        }
+        rm.unlock(q);
+
+        while (!isLesser(mod)) {
+            subtract(mod);
+        }
+        setSize(originalSize);
+        return true;
+    }
+
+    /**
+     * Computes -this^-1 mod 2^8 of an odd BigNat. Used to set up Montgomery multiplication.
+     */
+    protected byte negInverseDigit() {
+        short low = (short) (value[(short) (value.length - 1)] & DIGIT_MASK);
+        short x = low; // any odd number is its own inverse modulo 2^3, every Newton step doubles the precision
+        for (short i = 0; i < (short) 2; i++) {
+            x = (short) ((short) (x * (short) (2 - (short) (low * x))) & DIGIT_MASK);
+        }
+        return (byte) -x;
+    }
+
+    /**
+     * Test whether the bit at a given index is set. Bits are indexed from the least significant one.
+     */
+    public boolean testBit(short index) {
+        short i = (short) (value.length - 1 - (short) (index >> 3));
+        if (i < offset) {
+            return false;
+        }
+        return (byte) (value[i] & (byte) (1 << (short) (index & 7))) != (byte) 0;
+    }
+
     /**
      * Right bit shift with carry
      *
@@ -472,24 +981,45 @@ public class BigNatInternal {
      */
     protected void shiftRight(short bits, short carry) {
         // assumes 0 <= bits < 8
+        setMsd((short) 0);
         short mask = (short) ((short) (1 << bits) - 1); // lowest `bits` bits set to 1
-        for (short i = offset; i < (short) value.length; i++) {
+        short i = offset;
+        if ((short) (size & 1) != 0) {
             short current = (short) (value[i] & 0xff);
-            short previous = current;
-            current >>= bits;
-            value[i] = (byte) (current | carry);
-            carry = (short) (previous & mask);
-            carry <<= (short) (8 - bits);
+            value[i] = (byte) ((short) (current >> bits) | carry);
+            carry = (short) ((short) (current & mask) << (short) (8 - bits));
+            i++;
+        }
+
+        // The rest has an even number of digits and is processed two at a time
+        short keep = (short) ~(short) ((short) -1 << (short) (16 - bits)); // lowest `16 - bits` bits set to 1
+        carry <<= 8;
+        for (; i < (short) value.length; i += 2) {
+            short current = Util.getShort(value, i);
+            Util.setShort(value, i, (short) ((short) ((short) (current >> bits) & keep) | carry));
+            carry = (short) ((short) (current & mask) << (short) (16 - bits));
         }
     }
 
     /**
-     * Right bit shift
+     * Right bit shift. Whole bytes are moved at once, so the cost does not depend on the number of bits.
      *
      * @param bits number of bits to shift by
      */
     public void shiftRight(short bits) {
-        shiftRight(bits, (short) 0);
+        short bytes = (short) (bits >> 3);
+        if (bytes >= size) {
+            zero();
+            return;
+        }
+        if (bytes > 0) {
+            Util.arrayCopyNonAtomic(value, offset, value, (short) (offset + bytes), (short) (size - bytes));
+            Util.arrayFillNonAtomic(value, offset, bytes, (byte) 0);
+            setMsd((short) 0);
+        }
+        if ((short) (bits & 7) != 0) {
+            shiftRight((short) (bits & 7), (short) 0);
+        }
     }
 
     /**
@@ -500,14 +1030,20 @@ public class BigNatInternal {
      */
     protected void shiftLeft(short bits, short carry) {
         // assumes 0 <= bits < 8
-        short mask = (short) ((-1 << (8 - bits)) & 0xff); // highest `bits` bits set to 1
-        for (short i = (short) (value.length - 1); i >= offset; --i) {
-            short current = (short) (value[i] & 0xff);
-            short previous = current;
-            current <<= bits;
-            value[i] = (byte) (current | carry);
-            carry = (short) (previous & mask);
-            carry >>= (8 - bits);
+        setMsd((short) 0);
+        short mask = (short) ((short) (1 << bits) - 1); // lowest `bits` bits set to 1
+        short i = (short) (value.length - 2);
+
+        // Two digits at once, a single leading digit of an odd size is left for the byte step below
+        for (; i >= offset; i -= 2) {
+            short current = Util.getShort(value, i);
+            Util.setShort(value, i, (short) ((short) (current << bits) | carry));
+            carry = (short) ((short) (current >> (short) (16 - bits)) & mask);
+        }
+        if (i == (short) (offset - 1)) {
+            short current = (short) (value[offset] & 0xff);
+            value[offset] = (byte) ((short) (current << bits) | carry);
+            carry = (short) ((short) (current >> (short) (8 - bits)) & mask);
         }
 
         if (carry != 0) {
@@ -517,18 +1053,72 @@ public class BigNatInternal {
     }
 
     /**
-     * Right bit shift
+     * Left bit shift. Leading zero bytes are consumed first and this is enlarged only as much as the result needs.
+     * Whole bytes are moved at once, so the cost does not depend on the number of bits.
      *
      * @param bits number of bits to shift by
      */
     public void shiftLeft(short bits) {
-        shiftLeft(bits, (short) 0);
+        short bytes = (short) (bits >> 3);
+        if (bytes > 0) {
+            short lead = 0;
+            while (lead < bytes && lead < size && value[(short) (offset + lead)] == 0) {
+                ++lead;
+            }
+            if (lead == size) {
+                return; // shifted zero is zero
+            }
+            short from = (short) (offset + lead);
+            short len = (short) (size - lead);
+            setSize((short) (len + bytes));
+            Util.arrayCopyNonAtomic(value, from, value, offset, len);
+            Util.arrayFillNonAtomic(value, (short) (offset + len), bytes, (byte) 0);
+            setMsd((short) 0);
+        }
+        if ((short) (bits & 7) != 0) {
+            shiftLeft((short) (bits & 7), (short) 0);
+        }
+    }
+
+    /**
+     * Count the trailing zero bits, i.e., the largest k such that 2^k divides this. Zero has all its bits counted.
+     *
+     * @return number of trailing zero bits
+     */
+    public short trailingZeroBits() {
+        short i = (short) (value.length - 1);
+        while (i >= offset && value[i] == 0) {
+            --i;
+        }
+        short bits = (short) ((short) (value.length - 1 - i) << 3);
+        if (i >= offset) {
+            short digit = (short) (value[i] & DIGIT_MASK);
+            while ((short) (digit & 1) == 0) {
+                digit >>= 1;
+                ++bits;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Set value of this to 2^exponent. The size is set to the smallest one that fits the value.
+     *
+     * @param exponent non-negative exponent
+     */
+    public void setPowerOfTwo(short exponent) {
+        setSize((short) ((short) (exponent >> 3) + 1));
+        zero();
+        value[offset] = (byte) (1 << (short) (exponent & 7));
+        setMsd((short) (offset + 1));
     }
 
     /**
      * Divide this by divisor and store the remained in this and quotient in quotient.
      *
-     * Quadratic complexity in digit difference of this and divisor.
+     * Long division in the style of Knuth's Algorithm D. Each quotient digit is estimated from the leading digits
+     * of the remainder and the divisor normalized so that the highest bit of the divisor is set. The estimate is
+     * at most one too large after the refinement and fixed by a single add-back.
      *
      * @param divisor non-zero number
      * @param quotient may be null
@@ -538,55 +1128,55 @@ public class BigNatInternal {
             quotient.setSizeToMax(true);
         }
 
-        short divisorIndex = divisor.offset;
-        while (divisor.value[divisorIndex] == 0) {
-            divisorIndex++;
-        }
-
-        short divisorShift = (short) (size - divisor.size + divisorIndex - divisor.offset);
-        short divisionRound = 0;
-        short firstDivisorDigit = (short) (divisor.value[divisorIndex] & DIGIT_MASK);
-        short divisorBitShift = (short) (highestOneBit((short) (firstDivisorDigit + 1)) - 1);
-        byte secondDivisorDigit = divisorIndex < (short) (divisor.value.length - 1) ? divisor.value[(short) (divisorIndex + 1)] : 0;
-        byte thirdDivisorDigit = divisorIndex < (short) (divisor.value.length - 2) ? divisor.value[(short) (divisorIndex + 2)] : 0;
-
-        while (divisorShift >= 0) {
-            while (!isLesser(divisor, divisorShift, (short) (divisionRound > 0 ? divisionRound - 1 : 0))) {
-                short divisionRoundOffset = (short) (divisionRound + offset);
-                short dividentDigits = divisionRound == 0 ? 0 : (short) ((short) (value[(short) (divisionRoundOffset - 1)]) << DIGIT_LEN);
-                dividentDigits |= (short) (value[(short) (divisionRound + offset)] & DIGIT_MASK);
-
-                short divisorDigit;
-                if (dividentDigits < 0) {
-                    dividentDigits = (short) ((dividentDigits >>> 1) & POSITIVE_DOUBLE_DIGIT_MASK);
-                    divisorDigit = (short) ((firstDivisorDigit >>> 1) & POSITIVE_DOUBLE_DIGIT_MASK);
-                } else {
-                    short dividentBitShift = (short) (highestOneBit(dividentDigits) - 1);
-                    short bitShift = dividentBitShift <= divisorBitShift ? dividentBitShift : divisorBitShift;
-
-                    dividentDigits = shiftBits(
-                            dividentDigits, divisionRound < (short) (size - 1) ? value[(short) (divisionRoundOffset + 1)] : 0,
-                            divisionRound < (short) (size - 2) ? value[(short) (divisionRoundOffset + 2)] : 0,
-                            bitShift
-                    );
-                    divisorDigit = shiftBits(firstDivisorDigit, secondDivisorDigit, thirdDivisorDigit, bitShift);
-                }
+        short divisorIndex = divisor.msdIndex();
+        short divisorLength = (short) (divisor.value.length - divisorIndex);
 
-                short multiple = (short) (dividentDigits / (short) (divisorDigit + 1));
-                if (multiple < 1) {
-                    multiple = 1;
+        // Normalization is applied only to the digits used for the estimate, the operands are not shifted
+        short bitShift = 0;
+        while ((short) ((short) (divisor.value[divisorIndex] << bitShift) & 0x80) == 0) {
+            bitShift++;
+        }
+        short v1 = normalizedDigit(divisor.value, divisorIndex, divisorIndex, bitShift);
+        short v2 = normalizedDigit(divisor.value, divisorIndex, (short) (divisorIndex + 1), bitShift);
+
+        for (short divisorShift = (short) (size - divisorLength); divisorShift >= 0; divisorShift--) {
+            // Digit of the remainder above the leading digit of the shifted divisor
+            short top = (short) (offset + size - divisorLength - divisorShift - 1);
+            short u0 = normalizedDigit(value, offset, top, bitShift);
+            short u1 = normalizedDigit(value, offset, (short) (top + 1), bitShift);
+            short u2 = normalizedDigit(value, offset, (short) (top + 2), bitShift);
+
+            short multiple;
+            short remainder;
+            if (u0 >= v1) {
+                multiple = DIGIT_MASK;
+                remainder = (short) (u1 + v1);
+            } else {
+                // (u0 * 2^8 + u1) / v1 computed from the halved dividend to stay within a short
+                short half = (short) ((short) (u0 << 7) | (short) (u1 >> 1));
+                multiple = (short) (half / v1);
+                remainder = (short) ((short) ((short) (half - (short) (multiple * v1)) << 1) | (short) (u1 & 1));
+                multiple <<= 1;
+                if (remainder >= v1) {
+                    multiple++;
+                    remainder -= v1;
                 }
+            }
+            while (remainder <= DIGIT_MASK && isLesserUnsigned((short) ((short) (remainder << DIGIT_LEN) | u2), (short) (multiple * v2))) {
+                multiple--;
+                remainder += v1;
+            }
 
-                subtract(divisor, divisorShift, multiple);
+            if (multiple != 0 && subtract(divisor, divisorShift, multiple) != 0) {
+                multiple--;
+                add(divisor, divisorShift, (short) 1);
+            }
 
-                if (quotient != null) {
-                    short divisorShiftOffset = (short) (divisorShift - quotient.offset);
-                    short quotientDigit = (short) ((quotient.value[(short) (quotient.size - 1 - divisorShiftOffset)] & DIGIT_MASK) + multiple);
-                    quotient.value[(short) (quotient.size - 1 - divisorShiftOffset)] = (byte) quotientDigit;
-                }
+            if (quotient != null) {
+                short divisorShiftOffset = (short) (divisorShift - quotient.offset);
+                quotient.value[(short) (quotient.size - 1 - divisorShiftOffset)] = (byte) multiple;
+                quotient.setMsd((short) 0);
             }
-            divisionRound++;
-            divisorShift--;
         }
 
         if (quotient != null) {
@@ -595,51 +1185,14 @@ public class BigNatInternal {
     }
 
     /**
-     * Get the index of the highest bit set to 1. Used in remainderDivide.
+     * Returns the digit at index of digits shifted left by shift bits, taking the missing bits from the next digit.
+     * Digits outside [first, digits.length) are treated as zero. Used in remainderDivide.
      */
-    private static short highestOneBit(short x) {
-        for (short i = 0; i < DOUBLE_DIGIT_LEN; ++i) {
-            if (x < 0) {
-                return i;
-            }
-            x <<= 1;
-        }
-        return DOUBLE_DIGIT_LEN;
-    }
-
-    /**
-     * Shift to the left and fill. Used in remainderDivide.
-     *
-     * @param high most significant 16 bits
-     * @param middle middle 8 bits
-     * @param low least significant 8 bits
-     * @param shift the left shift
-     * @return most significant 16 bits as short
-     */
-    private static short shiftBits(short high, byte middle, byte low, short shift) {
-        // shift high
-        high <<= shift;
-
-        // merge middle bits
-        byte mask = (byte) (DIGIT_MASK << (shift >= DIGIT_LEN ? 0 : DIGIT_LEN - shift));
-        short bits = (short) ((short) (middle & mask) & DIGIT_MASK);
-        if (shift > DIGIT_LEN) {
-            bits <<= shift - DIGIT_LEN;
-        } else {
-            bits >>>= DIGIT_LEN - shift;
-        }
-        high |= bits;
-
-        if (shift <= DIGIT_LEN) {
-            return high;
-        }
-
-        // merge low bits
-        mask = (byte) (DIGIT_MASK << DOUBLE_DIGIT_LEN - shift);
-        bits = (short) ((((short) (low & mask) & DIGIT_MASK) >> DOUBLE_DIGIT_LEN - shift));
-        high |= bits;
-
-        return high;
+    private static short normalizedDigit(byte[] digits, short first, short index, short shift) {
+        short high = index >= first && index < (short) digits.length ? (short) (digits[index] & DIGIT_MASK) : 0;
+        short next = (short) (index + 1);
+        short low = next >= first && next < (short) digits.length ? (short) (digits[next] & DIGIT_MASK) : 0;
+        return (short) ((short) ((short) (high << shift) | (short) (low >> (short) (DIGIT_LEN - shift))) & DIGIT_MASK);
     }
 
     /// [DependencyBegin:ObjectLocker]
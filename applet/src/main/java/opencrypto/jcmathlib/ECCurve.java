@@ -1,5 +1,6 @@
 package opencrypto.jcmathlib;
 
+import javacard.framework.ISOException;
 import javacard.framework.JCSystem;
 import javacard.security.ECPrivateKey;
 import javacard.security.ECPublicKey;
@@ -16,7 +17,29 @@ public class ECCurve {
     public byte[] p, a, b, G, r;
     public short k;
     public BigNat pBN, aBN, bBN, rBN;
+    public MontgomeryContext pMont;
+    public BarrettContext pBarrett, rBarrett;
+    public SpecialFormContext pSpecial;
 
+    // Constants derived from p used by modSqrt and isQuadraticResidue
+    public byte sqrtAlgorithm;
+    public BigNat eulerExp, sqrtExp, sqrtC;
+    public short sqrtS;
+
+    // Fixed-base comb table for G multiplication, null if disabled, filled by the first multiplication of G
+    public byte[] gTable;
+    public short gTableTeeth, gTableSpacing;
+    public boolean gTableReady;
+
+    // GLV endomorphism (x, y) -> (beta x, y) = lambda (x, y) and scalar decomposition constants, null if not set
+    public BigNat glvBeta, glvLambda, glvG1, glvG2, glvMinusB1, glvMinusB2;
+    public short glvShift; // g1 and g2 are scaled by 2^glvShift, one and a half times the bit length of r
+    public static final byte GLV_NEGATE_K1 = 1;
+    public static final byte GLV_NEGATE_K2 = 2;
+
+    // Simplified SWU map of hash to curve: Z, the curve it maps to, sqrt(-Z) and the isogeny map, null if not set
+    public BigNat sswuZ, sswuA, sswuB, sswuC;
+    public BigNat[] isoMap;
 
     public KeyPair disposablePair;
     public ECPrivateKey disposablePriv;
@@ -68,9 +91,208 @@ public class ECCurve {
         rBN = new BigNat(COORD_SIZE, JCSystem.MEMORY_TYPE_TRANSIENT_RESET, rm);
         rBN.fromByteArray(r, (short) 0, (short) r.length);
 
+        // Software modular arithmetic is used when RSA engine cannot square or exponentiate
+        if (!OperationSupport.getInstance().RSA_EXP || !OperationSupport.getInstance().RSA_SQ || OperationSupport.getInstance().RSA_EXTRA_MOD) {
+            pMont = new MontgomeryContext(pBN, rm);
+            pBN.setMontgomeryContext(pMont);
+        }
+
+        pBarrett = new BarrettContext(pBN, rm);
+        pBN.setBarrettContext(pBarrett);
+        rBarrett = new BarrettContext(rBN, rm);
+        rBN.setBarrettContext(rBarrett);
+        // Primes of a special form are reduced by folding instead of Barrett reduction
+        byte form = SpecialFormContext.detectForm(p, (short) 0, (short) p.length);
+        if (form != SpecialFormContext.NONE) {
+            pSpecial = new SpecialFormContext(pBN, form, rm);
+            pBN.setSpecialFormContext(pSpecial);
+        }
+
+        precomputeSqrtConstants();
+
         disposablePair = newKeyPair(null);
         disposablePriv = (ECPrivateKey) disposablePair.getPrivate();
         disposablePub = (ECPublicKey) disposablePair.getPublic();
+
+        allocateGeneratorTable();
+    }
+
+    /**
+     * Allocates the fixed-base comb table for multiplication of G. The scalar bits are split into teeth columns with
+     * spacing d, and entry j holds G plus the sum of 2^(i*d) G over all bits i set in j, so every column adds an
+     * entry. The last entry holds -(2^d - 1) G, which cancels the G added by each column. The table is stored in
+     * EEPROM as 2^teeth + 1 points in uncompressed form and filled by ECPoint on the first multiplication of G.
+     */
+    private void allocateGeneratorTable() {
+        gTableTeeth = OperationSupport.getInstance().EC_G_TABLE_TEETH;
+        if (gTableTeeth == 0) {
+            return;
+        }
+        gTableSpacing = (short) ((short) (COORD_SIZE * 8 + gTableTeeth - 1) / gTableTeeth);
+        gTable = new byte[(short) ((short) ((short) (1 << gTableTeeth) + 1) * POINT_SIZE)];
+    }
+
+    /**
+     * Sets the efficiently computable endomorphism of the curve used by software scalar multiplication. The point
+     * (beta x, y) equals lambda (x, y), so a scalar split into k1 + k2 lambda with half-length k1 and k2 needs half
+     * of the doublings. The lattice constants are those of SecP256k1.glvG1, glvG2, glvMinusB1 and glvMinusB2. The
+     * rounded quotients are scaled by 2^t with t one and a half times the bit length of r, i.e., 2^384 for a 256-bit r.
+     *
+     * @param beta cube root of unity modulo p
+     * @param lambda cube root of unity modulo r matching beta
+     * @param g1 round(2^t b2 / r)
+     * @param g2 round(2^t (-b1) / r)
+     * @param minusB1 -b1
+     * @param minusB2 -b2 mod r
+     */
+    public void setEndomorphism(byte[] beta, byte[] lambda, byte[] g1, byte[] g2, byte[] minusB1, byte[] minusB2) {
+        glvBeta = newConstant(beta, (short) 0, (short) beta.length);
+        glvLambda = newConstant(lambda, (short) 0, (short) lambda.length);
+        glvG1 = newConstant(g1, (short) 0, (short) g1.length);
+        glvG2 = newConstant(g2, (short) 0, (short) g2.length);
+        glvMinusB1 = newConstant(minusB1, (short) 0, (short) minusB1.length);
+        glvMinusB2 = newConstant(minusB2, (short) 0, (short) minusB2.length);
+        short bits = rBN.bitLength();
+        glvShift = (short) (bits + (short) (bits >> 1));
+    }
+
+    /**
+     * Sets the constants of the simplified SWU map used by ECPoint.hashToCurve, for curves with a and b nonzero.
+     *
+     * @param z non-square Z of the map
+     */
+    public void setHashToCurve(byte[] z) {
+        setHashToCurve(z, aBN, bBN, null);
+    }
+
+    /**
+     * Sets the constants of the simplified SWU map used by ECPoint.hashToCurve for curves with a = 0. The map
+     * outputs points of the isogenous curve y^2 = x^3 + A' x + B', which are mapped to this curve by the isogeny.
+     *
+     * @param z non-square Z of the map
+     * @param isoA A' of the isogenous curve
+     * @param isoB B' of the isogenous curve
+     * @param isoMap coefficients of the isogeny map as in SecP256k1.isoMap, each of COORD_SIZE bytes
+     */
+    public void setHashToCurve(byte[] z, byte[] isoA, byte[] isoB, byte[] isoMap) {
+        BigNat[] map = new BigNat[(short) (isoMap.length / COORD_SIZE)];
+        for (short i = 0; i < (short) map.length; ++i) {
+            map[i] = newConstant(isoMap, (short) (i * COORD_SIZE), COORD_SIZE);
+        }
+        setHashToCurve(z, newConstant(isoA, (short) 0, (short) isoA.length),
+                newConstant(isoB, (short) 0, (short) isoB.length), map);
+    }
+
+    private void setHashToCurve(byte[] z, BigNat a, BigNat b, BigNat[] map) {
+        // The square roots of the map are computed by a single exponentiation by (p + 1) / 4
+        if (sqrtAlgorithm != BigNat.SQRT_P3MOD4) {
+            ISOException.throwIt(ReturnCodes.SW_OPERATION_NOT_SUPPORTED);
+        }
+        sswuZ = newConstant(z, (short) 0, (short) z.length);
+        sswuA = a;
+        sswuB = b;
+        isoMap = map;
+        sswuC = new BigNat(COORD_SIZE, JCSystem.MEMORY_TYPE_PERSISTENT, rm);
+        sswuC.clone(sswuZ);
+        sswuC.modNegate(pBN);
+        sswuC.modExp(sqrtExp, pBN);
+    }
+
+    private BigNat newConstant(byte[] value, short offset, short length) {
+        BigNat result = new BigNat(length, JCSystem.MEMORY_TYPE_PERSISTENT, rm);
+        result.fromByteArray(value, offset, length);
+        return result;
+    }
+
+    /**
+     * Splits scalar into k1 + k2 lambda mod r with k1 and k2 of at most half of the bit length of r. Computes
+     * c1 = round(scalar g1 / 2^t) and c2 = round(scalar g2 / 2^t) with t = glvShift, then k2 = c1 (-b1) + c2 (-b2) and
+     * k1 = scalar - k2 lambda mod r. Negative k1 and k2 are returned as their absolute values.
+     *
+     * @param scalar scalar lesser than r
+     * @param k1 output for the absolute value of k1
+     * @param k2 output for the absolute value of k2
+     * @return GLV_NEGATE_K1 and GLV_NEGATE_K2 flags for the negative parts
+     */
+    public byte decomposeScalar(BigNat scalar, BigNat k1, BigNat k2) {
+        BigNat c = rm.BN_A;
+
+        c.lock();
+        roundedQuotient(scalar, glvG1, c);
+        k2.clone(c);
+        k2.modMult(glvMinusB1, rBN);
+        roundedQuotient(scalar, glvG2, c);
+        c.modMult(glvMinusB2, rBN);
+        k2.modAdd(c, rBN);
+
+        k1.clone(k2);
+        k1.modMult(glvLambda, rBN);
+        c.clone(scalar);
+        c.modSub(k1, rBN);
+        k1.clone(c);
+        c.unlock();
+
+        // Non-negative parts have at most half of the bit length of r, negative ones are close to r
+        byte negate = 0;
+        short half = (short) (rBN.bitLength() >> 1);
+        if (k1.bitLength() > half) {
+            k1.modNegate(rBN);
+            negate |= GLV_NEGATE_K1;
+        }
+        if (k2.bitLength() > half) {
+            k2.modNegate(rBN);
+            negate |= GLV_NEGATE_K2;
+        }
+        k1.shrink();
+        k2.shrink();
+        return negate;
+    }
+
+    /**
+     * Computes round(scalar g / 2^glvShift) and stores it into result, sized as r.
+     */
+    private void roundedQuotient(BigNat scalar, BigNat g, BigNat result) {
+        result.clone(scalar);
+        result.mult(g);
+        boolean roundUp = result.testBit((short) (glvShift - 1));
+        result.shiftRight(glvShift);
+        if (roundUp) {
+            result.increment();
+        }
+        result.setSize(rBN.length());
+    }
+
+    /**
+     * Precomputes constants derived from p which would otherwise be recomputed in every point decompression.
+     */
+    private void precomputeSqrtConstants() {
+        eulerExp = new BigNat(COORD_SIZE, JCSystem.MEMORY_TYPE_PERSISTENT, rm);
+        eulerExp.clone(pBN);
+        eulerExp.shiftRight((short) 1); // (p - 1) / 2
+
+        sqrtAlgorithm = pBN.sqrtAlgorithm();
+        sqrtS = 1;
+        if (sqrtAlgorithm == BigNat.SQRT_TONELLI_SHANKS) {
+            // p - 1 = Q * 2^S with Q odd
+            while (!pBN.testBit(sqrtS)) {
+                ++sqrtS;
+            }
+
+            // c = z^Q for the least quadratic non-residue z
+            BigNat q = rm.BN_G;
+            sqrtC = new BigNat(COORD_SIZE, JCSystem.MEMORY_TYPE_PERSISTENT, rm);
+            sqrtC.setValue((byte) 2);
+            while (sqrtC.isQuadraticResidue(pBN, eulerExp)) {
+                sqrtC.increment();
+            }
+            q.lock();
+            q.clone(pBN);
+            q.shiftRight(sqrtS);
+            sqrtC.modExp(q, pBN);
+            q.unlock();
+        }
+        sqrtExp = new BigNat(COORD_SIZE, JCSystem.MEMORY_TYPE_PERSISTENT, rm);
+        pBN.sqrtExponent(sqrtAlgorithm, sqrtS, sqrtExp);
     }
 
     /**
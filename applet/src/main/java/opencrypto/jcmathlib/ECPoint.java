@@ -1,10 +1,13 @@
 package opencrypto.jcmathlib;
 
 import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
 import javacard.framework.Util;
 import javacard.security.*;
 
 /**
+ * Point of an elliptic curve stored in an ECPublicKey object.
+ *
  * @author Vasilios Mavroudis and Petr Svenda and Antonin Dufka
  */
 public class ECPoint {
@@ -14,6 +17,15 @@ public class ECPoint {
     private KeyPair pointKeyPair;
     private final ECCurve curve;
 
+    // Jacobian coordinates (x = X / Z^2, y = Y / Z^3) used by software addition and doubling. While jacobian[0] is
+    // set, they hold the value of this point and the point object is stale until the point is read. While affine[0]
+    // is set, they hold the affine coordinates of the point object with Z = 1, so it can be read without getW. This
+    // cache reuses the Jacobian registers and takes no RAM of its own.
+    private final BigNat jX, jY, jZ;
+    private final boolean[] jacobian;
+    private final boolean[] affine;
+    private final boolean[] generator; // the point was set to G, so multiplication may use the comb table
+
     /**
      * Creates new ECPoint object for provided {@code curve}. Random initial point value is generated.
      *
@@ -22,6 +34,13 @@ public class ECPoint {
     public ECPoint(ECCurve curve) {
         this.curve = curve;
         this.rm = curve.rm;
+        byte allocatorType = rm.memAlloc.getAllocatorType(ObjectAllocator.EC_POINT_JACOBIAN);
+        jX = new BigNat(curve.COORD_SIZE, allocatorType, rm);
+        jY = new BigNat(curve.COORD_SIZE, allocatorType, rm);
+        jZ = new BigNat(curve.COORD_SIZE, allocatorType, rm);
+        jacobian = JCSystem.makeTransientBooleanArray((short) 1, JCSystem.CLEAR_ON_RESET);
+        affine = JCSystem.makeTransientBooleanArray((short) 1, JCSystem.CLEAR_ON_RESET);
+        generator = JCSystem.makeTransientBooleanArray((short) 1, JCSystem.CLEAR_ON_RESET);
         updatePointObjects();
     }
 
@@ -39,6 +58,9 @@ public class ECPoint {
      * New random point value is generated.
      */
     public final void updatePointObjects() {
+        jacobian[0] = false;
+        affine[0] = false;
+        generator[0] = false;
         pointKeyPair = curve.newKeyPair(pointKeyPair);
         point = (ECPublicKey) pointKeyPair.getPublic();
     }
@@ -48,6 +70,9 @@ public class ECPoint {
      */
     public void randomize() {
         if (OperationSupport.getInstance().EC_GEN) {
+            jacobian[0] = false;
+            affine[0] = false;
+            generator[0] = false;
             pointKeyPair.genKeyPair(); // Fails for some curves on some cards
         } else {
             BigNat tmp = rm.EC_BN_A;
@@ -58,7 +83,7 @@ public class ECPoint {
             tmp.mod(curve.rBN);
             tmp.shrink();
             rm.unlock(rm.ARRAY_A);
-            point.setW(curve.G, (short) 0, (short) curve.G.length);
+            setW(curve.G, (short) 0, (short) curve.G.length);
             multiplication(tmp);
             tmp.unlock();
         }
@@ -71,9 +96,29 @@ public class ECPoint {
      * @param other point to be copied
      */
     public void copy(ECPoint other) {
+        copyValue(other);
+        store();
+    }
+
+    /**
+     * Copies value of provided point into this like copy, but a value the other point holds in Jacobian coordinates
+     * is kept so.
+     *
+     * @param other point to be copied
+     */
+    private void copyValue(ECPoint other) {
         if (length() != other.length()) {
             ISOException.throwIt(ReturnCodes.SW_ECPOINT_INVALIDLENGTH);
         }
+        if (other.jacobian[0] || other.affine[0]) {
+            jX.clone(other.jX);
+            jY.clone(other.jY);
+            jZ.clone(other.jZ);
+            jacobian[0] = true;
+            affine[0] = false;
+            generator[0] = other.generator[0];
+            return;
+        }
         byte[] pointBuffer = rm.POINT_ARRAY_A;
 
         rm.lock(pointBuffer);
@@ -92,6 +137,10 @@ public class ECPoint {
      * @param length length of point
      */
     public void setW(byte[] buffer, short offset, short length) {
+        jacobian[0] = false;
+        affine[0] = false;
+        generator[0] = curve.gTable != null && length == curve.POINT_SIZE
+                && Util.arrayCompare(buffer, offset, curve.G, (short) 0, length) == 0;
         point.setW(buffer, offset, length);
     }
 
@@ -103,19 +152,249 @@ public class ECPoint {
      * @return length of serialized point (number of bytes)
      */
     public short getW(byte[] buffer, short offset) {
+        if (jacobian[0]) {
+            return toAffine(buffer, offset);
+        }
+        if (affine[0]) {
+            return writeAffine(buffer, offset);
+        }
         return point.getW(buffer, offset);
     }
 
     /**
      * Returns this point value as ECPublicKey object. No copy of point is made
      * before return, so change of returned object will also change this point value.
+     * The cached affine coordinates are dropped, as the caller may change the object.
      *
      * @return point as ECPublicKey object
      */
     public ECPublicKey asPublicKey() {
+        normalize();
+        affine[0] = false;
+        generator[0] = false;
         return point;
     }
 
+    /**
+     * Stores the value held in Jacobian coordinates into the point object. Software operations do so before they
+     * return, unless OperationSupport.EC_SW_LAZY keeps their results in RAM until the point is read. Such a point
+     * has to be normalized if its value must survive a card reset, otherwise it reverts to the value last stored in
+     * the point object.
+     */
+    public void normalize() {
+        if (!jacobian[0]) {
+            return;
+        }
+        byte[] pointBuffer = rm.POINT_ARRAY_A;
+
+        rm.lock(pointBuffer);
+        toAffine(pointBuffer, (short) 0);
+        rm.unlock(pointBuffer);
+    }
+
+    /**
+     * Normalizes all provided points like normalize, but shares a single modular inversion among them using
+     * Montgomery's trick, so each further point costs three modular multiplications instead of an inversion.
+     * Products of the Z coordinates are kept in TABLE_ARRAY, so the points are processed in chunks of as many as fit.
+     *
+     * @param points points of a single curve to normalize; MUST NOT contain a point twice
+     */
+    public static void normalizeAll(ECPoint[] points) {
+        if (points.length == 0) {
+            return;
+        }
+        for (short i = 0; i < (short) points.length; ++i) {
+            if (points[i].jacobian[0] && points[i].jZ.isZero()) {
+                ISOException.throwIt(ReturnCodes.SW_ECPOINT_INVALID); // point at infinity has no affine representation
+            }
+        }
+        ResourceManager rm = points[0].rm;
+        byte[] prefixes = rm.TABLE_ARRAY;
+        short chunk = (short) (prefixes.length / points[0].curve.COORD_SIZE);
+
+        rm.lock(prefixes);
+        for (short first = 0; first < (short) points.length; first += chunk) {
+            short count = (short) ((short) points.length - first);
+            normalizeAll(points, first, count < chunk ? count : chunk, prefixes);
+        }
+        rm.unlock(prefixes);
+    }
+
+    /**
+     * Normalizes count points starting at first. Slot k of prefixes holds the product of the Z coordinates of the
+     * Jacobian points before the k-th one, while the accumulator walks back from the inverted product of all of them.
+     */
+    private static void normalizeAll(ECPoint[] points, short first, short count, byte[] prefixes) {
+        ECCurve curve = points[first].curve;
+        ResourceManager rm = points[first].rm;
+        short len = curve.COORD_SIZE;
+        BigNat acc = rm.EC_BN_D;
+        BigNat zInv = rm.EC_BN_B;
+        byte[] pointBuffer = rm.POINT_ARRAY_A;
+
+        acc.lock();
+        acc.setSize(len);
+        acc.setValue((byte) 1);
+        short slots = 0;
+        for (short i = first; i < (short) (first + count); ++i) {
+            ECPoint point = points[i];
+            if (!point.jacobian[0]) {
+                continue;
+            }
+            acc.prependZeros(len, prefixes, (short) (slots * len));
+            ++slots;
+            acc.modMult(point.jZ, curve.pBN);
+        }
+        if (slots == 0) {
+            acc.unlock();
+            return;
+        }
+        acc.primeModInv(curve.pBN);
+
+        zInv.lock();
+        rm.lock(pointBuffer);
+        for (short i = (short) (first + count - 1); i >= first; --i) {
+            ECPoint point = points[i];
+            if (!point.jacobian[0]) {
+                continue;
+            }
+            --slots;
+            zInv.setSize(len);
+            zInv.fromByteArray(prefixes, (short) (slots * len), len);
+            zInv.modMult(acc, curve.pBN);
+            acc.modMult(point.jZ, curve.pBN);
+            point.scaleByZInverse(zInv);
+            point.storeAffine(pointBuffer, (short) 0);
+        }
+        rm.unlock(pointBuffer);
+        zInv.unlock();
+        acc.unlock();
+    }
+
+    /**
+     * Stores the result of a software operation into the point object unless OperationSupport.EC_SW_LAZY defers it.
+     * The point at infinity has no affine representation, so it stays in Jacobian coordinates.
+     */
+    private void store() {
+        if (!OperationSupport.getInstance().EC_SW_LAZY && jacobian[0] && !jZ.isZero()) {
+            normalize();
+        }
+    }
+
+    /**
+     * Converts this point from Jacobian to affine coordinates, stores it into the point object and serializes it
+     * into the output buffer.
+     *
+     * @param buffer output array for serialized point
+     * @param offset start offset within output array
+     * @return length of serialized point (number of bytes)
+     */
+    private short toAffine(byte[] buffer, short offset) {
+        scaleToAffine();
+        return storeAffine(buffer, offset);
+    }
+
+    /**
+     * Stores the affine coordinates held in jX and jY into the point object and serializes them into the output
+     * buffer.
+     *
+     * @param buffer output array for serialized point
+     * @param offset start offset within output array
+     * @return length of serialized point (number of bytes)
+     */
+    private short storeAffine(byte[] buffer, short offset) {
+        writeAffine(buffer, offset);
+        point.setW(buffer, offset, curve.POINT_SIZE);
+        jacobian[0] = false;
+        affine[0] = true;
+        return curve.POINT_SIZE;
+    }
+
+    /**
+     * Scales the Jacobian coordinates of this point so that Z is one, i.e., X and Y become the affine coordinates.
+     */
+    private void scaleToAffine() {
+        if (jZ.isZero()) {
+            ISOException.throwIt(ReturnCodes.SW_ECPOINT_INVALID); // point at infinity has no affine representation
+        }
+        BigNat zInv = rm.EC_BN_B;
+
+        zInv.lock();
+        zInv.clone(jZ);
+        zInv.primeModInv(curve.pBN); // Z depends on the scalar, so it is inverted with the public exponent p - 2
+        scaleByZInverse(zInv);
+        zInv.unlock();
+    }
+
+    /**
+     * Scales the Jacobian coordinates of this point by the inverse of Z, so that Z becomes one.
+     *
+     * @param zInv inverse of the Z coordinate of this point
+     */
+    private void scaleByZInverse(BigNat zInv) {
+        BigNat tmp = rm.EC_BN_C;
+
+        tmp.lock();
+        tmp.clone(zInv);
+        tmp.modSq(curve.pBN);
+        jX.modMult(tmp, curve.pBN);
+        tmp.modMult(zInv, curve.pBN);
+        jY.modMult(tmp, curve.pBN);
+        tmp.unlock();
+        jZ.setValue((byte) 1);
+    }
+
+    /**
+     * Serializes the affine coordinates held in jX and jY in uncompressed form.
+     *
+     * @param buffer output array for serialized point
+     * @param offset start offset within output array
+     * @return length of serialized point (number of bytes)
+     */
+    private short writeAffine(byte[] buffer, short offset) {
+        buffer[offset] = (byte) 0x04;
+        jX.prependZeros(curve.COORD_SIZE, buffer, (short) (offset + 1));
+        jY.prependZeros(curve.COORD_SIZE, buffer, (short) (offset + 1 + curve.COORD_SIZE));
+        return curve.POINT_SIZE;
+    }
+
+    /**
+     * Loads the affine coordinates of this point into jX and jY unless they already hold them. A value held in
+     * Jacobian coordinates is normalized first.
+     */
+    private void cacheAffine() {
+        if (jacobian[0]) {
+            normalize();
+            return;
+        }
+        if (affine[0]) {
+            return;
+        }
+        byte[] pointBuffer = rm.POINT_ARRAY_A;
+
+        rm.lock(pointBuffer);
+        point.getW(pointBuffer, (short) 0);
+        jX.fromByteArray(pointBuffer, (short) 1, curve.COORD_SIZE);
+        jY.fromByteArray(pointBuffer, (short) (1 + curve.COORD_SIZE), curve.COORD_SIZE);
+        rm.unlock(pointBuffer);
+        jZ.setSize(curve.COORD_SIZE);
+        jZ.setValue((byte) 1);
+        affine[0] = true;
+    }
+
+    /**
+     * Loads the value of this point into Jacobian coordinates unless they already hold it.
+     */
+    private void toJacobian() {
+        if (jacobian[0]) {
+            return;
+        }
+        cacheAffine();
+        affine[0] = false;
+        jacobian[0] = true;
+        generator[0] = false;
+    }
+
     /**
      * Returns curve associated with this point. No copy of curve is made
      * before return, so change of returned object will also change curve for
@@ -135,12 +414,8 @@ public class ECPoint {
      * @return length of X coordinate (in bytes)
      */
     public short getX(byte[] buffer, short offset) {
-        byte[] pointBuffer = rm.POINT_ARRAY_A;
-
-        rm.lock(pointBuffer);
-        point.getW(pointBuffer, (short) 0);
-        Util.arrayCopyNonAtomic(pointBuffer, (short) 1, buffer, offset, curve.COORD_SIZE);
-        rm.unlock(pointBuffer);
+        cacheAffine();
+        jX.prependZeros(curve.COORD_SIZE, buffer, offset);
         return curve.COORD_SIZE;
     }
 
@@ -152,12 +427,8 @@ public class ECPoint {
      * @return length of Y coordinate (in bytes)
      */
     public short getY(byte[] buffer, short offset) {
-        byte[] pointBuffer = rm.POINT_ARRAY_A;
-
-        rm.lock(pointBuffer);
-        point.getW(pointBuffer, (short) 0);
-        Util.arrayCopyNonAtomic(pointBuffer, (short) (1 + curve.COORD_SIZE), buffer, offset, curve.COORD_SIZE);
-        rm.unlock(pointBuffer);
+        cacheAffine();
+        jY.prependZeros(curve.COORD_SIZE, buffer, offset);
         return curve.COORD_SIZE;
     }
 
@@ -165,52 +436,71 @@ public class ECPoint {
      * Double this point. Pure implementation without KeyAgreement.
      */
     public void swDouble() {
-        byte[] pointBuffer = rm.POINT_ARRAY_A;
-        BigNat pX = rm.EC_BN_B;
-        BigNat pY = rm.EC_BN_C;
-        BigNat lambda = rm.EC_BN_D;
-        BigNat tmp = rm.EC_BN_E;
-
-        rm.lock(pointBuffer);
-        getW(pointBuffer, (short) 0);
-
-        pX.lock();
-        pX.fromByteArray(pointBuffer, (short) 1, curve.COORD_SIZE);
-
-        pY.lock();
-        pY.fromByteArray(pointBuffer, (short) (1 + curve.COORD_SIZE), curve.COORD_SIZE);
-
-        lambda.lock();
-        lambda.clone(pX);
-        lambda.modSq(curve.pBN);
-        lambda.modMult(ResourceManager.THREE, curve.pBN);
-        lambda.modAdd(curve.aBN, curve.pBN);
-
-        tmp.lock();
-        tmp.clone(pY);
-        tmp.modAdd(tmp, curve.pBN);
-        tmp.modInv(curve.pBN);
-        lambda.modMult(tmp, curve.pBN);
-        tmp.clone(lambda);
-        tmp.modSq(curve.pBN);
-        tmp.modSub(pX, curve.pBN);
-        tmp.modSub(pX, curve.pBN);
-        tmp.prependZeros(curve.COORD_SIZE, pointBuffer, (short) 1);
-
-        tmp.modSub(pX, curve.pBN);
-        pX.unlock();
-        tmp.modMult(lambda, curve.pBN);
-        lambda.unlock();
-        tmp.modAdd(pY, curve.pBN);
-        tmp.modNegate(curve.pBN);
-        pY.unlock();
-        tmp.prependZeros(curve.COORD_SIZE, pointBuffer, (short) (1 + curve.COORD_SIZE));
-        tmp.unlock();
-
-        setW(pointBuffer, (short) 0, curve.POINT_SIZE);
-        rm.unlock(pointBuffer);
+        toJacobian();
+        jacobianDouble();
+        store();
     }
 
+    /**
+     * Doubles this point in Jacobian coordinates.
+     */
+    private void jacobianDouble() {
+        BigNat s = rm.EC_BN_B;
+        BigNat m = rm.EC_BN_C;
+        BigNat t = rm.EC_BN_D;
+
+        // M = 3X^2 + aZ^4
+        m.lock();
+        m.clone(jX);
+        m.modSq(curve.pBN);
+        t.lock();
+        t.clone(m);
+        m.modAddLazy(t, curve.pBN);
+        m.modAddLazy(t, curve.pBN);
+        if (!curve.aBN.isZero()) {
+            t.clone(jZ);
+            t.modSq(curve.pBN);
+            t.modSq(curve.pBN);
+            t.modMult(curve.aBN, curve.pBN);
+            m.modAddLazy(t, curve.pBN);
+        }
+        m.modReduceLazy(curve.pBN);
+
+        // Z' = 2YZ
+        jZ.modMult(jY, curve.pBN);
+        jZ.modAdd(jZ, curve.pBN);
+
+        // S = 4XY^2
+        t.clone(jY);
+        t.modSq(curve.pBN);
+        s.lock();
+        s.clone(jX);
+        s.modMult(t, curve.pBN);
+        s.modAddLazy(s, curve.pBN);
+        s.modAddLazy(s, curve.pBN);
+        s.modReduceLazy(curve.pBN);
+
+        // X' = M^2 - 2S
+        jX.clone(m);
+        jX.modSq(curve.pBN);
+        jX.modSubLazy(s, curve.pBN);
+        jX.modSubLazy(s, curve.pBN);
+        jX.modReduceLazy(curve.pBN);
+
+        // Y' = M(S - X') - 8Y^4
+        t.modSq(curve.pBN);
+        t.modAddLazy(t, curve.pBN);
+        t.modAddLazy(t, curve.pBN);
+        t.modAddLazy(t, curve.pBN);
+        t.modReduceLazy(curve.pBN);
+        jY.clone(s);
+        s.unlock();
+        jY.modSub(jX, curve.pBN);
+        jY.modMult(m, curve.pBN);
+        m.unlock();
+        jY.modSub(t, curve.pBN);
+        t.unlock();
+    }
 
     /**
      * Doubles the current value of this point.
@@ -232,126 +522,146 @@ public class ECPoint {
             hwAdd(other);
         } else {
             swAdd(other);
+            store();
         }
     }
 
     /**
-     * Implements adding of two points without ALG_EC_PACE_GM.
+     * Implements adding of two points without ALG_EC_PACE_GM. The result is kept in Jacobian coordinates, so
+     * chained additions compute no modular inversion until the point is read.
      *
      * @param other point to be added to this.
      */
     private void swAdd(ECPoint other) {
-        boolean samePoint = this == other || isEqual(other);
-        if (samePoint && OperationSupport.getInstance().EC_HW_XY) {
-            multiplication(ResourceManager.TWO);
+        if (this == other) {
+            toJacobian();
+            jacobianDouble();
+            return;
+        }
+        if (other.jacobian[0] && other.jZ.isZero()) {
+            return; // other is the point at infinity
+        }
+        toJacobian();
+        if (jZ.isZero()) {
+            copyValue(other);
             return;
         }
 
-        byte[] pointBuffer = rm.POINT_ARRAY_A;
-        BigNat xR = rm.EC_BN_B;
-        BigNat yR = rm.EC_BN_C;
-        BigNat xP = rm.EC_BN_D;
-        BigNat yP = rm.EC_BN_E;
-        BigNat xQ = rm.EC_BN_F;
-        BigNat nominator = rm.EC_BN_B;
-        BigNat denominator = rm.EC_BN_C;
-        BigNat lambda = rm.EC_BN_A;
-
-        rm.lock(pointBuffer);
-        point.getW(pointBuffer, (short) 0);
-        xP.lock();
-        xP.setSize(curve.COORD_SIZE);
-        xP.fromByteArray(pointBuffer, (short) 1, curve.COORD_SIZE);
-        yP.lock();
-        yP.setSize(curve.COORD_SIZE);
-        yP.fromByteArray(pointBuffer, (short) (1 + curve.COORD_SIZE), curve.COORD_SIZE);
-        rm.unlock(pointBuffer);
-
-
-        // l = (y_q-y_p)/(x_q-x_p))
-        // x_r = l^2 - x_p -x_q
-        // y_r = l(x_p-x_r)-y_p
-
-        // P + Q = R
-        nominator.lock();
-        denominator.lock();
-        if (samePoint) {
-            // lambda = (3(x_p^2)+a)/(2y_p)
-            // (3(x_p^2)+a)
-            nominator.clone(xP);
-            nominator.modSq(curve.pBN);
-            nominator.modMult(ResourceManager.THREE, curve.pBN);
-            nominator.modAdd(curve.aBN, curve.pBN);
-            // (2y_p)
-            denominator.clone(yP);
-            denominator.modMult(ResourceManager.TWO, curve.pBN);
-            denominator.modInv(curve.pBN);
-
+        BigNat u = rm.EC_BN_B;
+        BigNat s = rm.EC_BN_C;
+        BigNat t = rm.EC_BN_D;
+
+        u.lock();
+        t.lock();
+        if (other.jacobian[0]) {
+            // (X_1 Z_2^2, Y_1 Z_2^3) turns the mixed formula below into the general one
+            s.lock();
+            s.clone(other.jZ);
+            s.modSq(curve.pBN);
+            jX.modMult(s, curve.pBN);
+            s.modMult(other.jZ, curve.pBN);
+            jY.modMult(s, curve.pBN);
+            s.unlock();
+            u.clone(other.jX);
+            t.clone(other.jY);
         } else {
-            // lambda = (y_q-y_p) / (x_q-x_p) mod p
-            rm.lock(pointBuffer);
-            other.point.getW(pointBuffer, (short) 0);
-            xQ.lock();
-            xQ.setSize(curve.COORD_SIZE);
-            xQ.fromByteArray(pointBuffer, (short) 1, other.curve.COORD_SIZE);
-            nominator.setSize(curve.COORD_SIZE);
-            nominator.fromByteArray(pointBuffer, (short) (1 + curve.COORD_SIZE), curve.COORD_SIZE);
-            rm.unlock(pointBuffer);
-
-            nominator.mod(curve.pBN);
-
-            nominator.modSub(yP, curve.pBN);
-
-            // (x_q-x_p)
-            denominator.clone(xQ);
-            denominator.mod(curve.pBN);
-            denominator.modSub(xP, curve.pBN);
-            denominator.modInv(curve.pBN);
+            other.cacheAffine();
+            u.clone(other.jX);
+            t.clone(other.jY);
         }
+        jacobianAdd(other.jacobian[0] ? other.jZ : null);
+    }
 
-        lambda.lock();
-        lambda.clone(nominator);
-        lambda.modMult(denominator, curve.pBN);
-        nominator.unlock();
-        denominator.unlock();
-
-        // (x_p, y_p) + (x_q, y_q) = (x_r, y_r)
-        // lambda = (y_q - y_p) / (x_q - x_p)
-
-        // x_r = lambda^2 - x_p - x_q
-        xR.lock();
-        if (samePoint) {
-            rm.lock(pointBuffer);
-            short len = multXKA(ResourceManager.TWO, pointBuffer, (short) 0);
-            xR.fromByteArray(pointBuffer, (short) 0, len);
-            rm.unlock(pointBuffer);
-        } else {
-            xR.clone(lambda);
-            xR.modSq(curve.pBN);
-            xR.modSub(xP, curve.pBN);
-            xR.modSub(xQ, curve.pBN);
+    /**
+     * Adds an affine point serialized in uncompressed form to this point. The result is kept in Jacobian
+     * coordinates.
+     *
+     * @param buffer array with serialized point
+     * @param offset start offset within input array
+     */
+    void swAdd(byte[] buffer, short offset) {
+        toJacobian();
+        if (jZ.isZero()) {
+            jX.fromByteArray(buffer, (short) (offset + 1), curve.COORD_SIZE);
+            jY.fromByteArray(buffer, (short) (offset + 1 + curve.COORD_SIZE), curve.COORD_SIZE);
+            jZ.setValue((byte) 1);
+            return;
         }
-        xQ.unlock();
+        BigNat u = rm.EC_BN_B;
+        BigNat t = rm.EC_BN_D;
+
+        u.lock();
+        t.lock();
+        u.fromByteArray(buffer, (short) (offset + 1), curve.COORD_SIZE);
+        t.fromByteArray(buffer, (short) (offset + 1 + curve.COORD_SIZE), curve.COORD_SIZE);
+        jacobianAdd(null);
+    }
 
-        // y_r = lambda(x_p - x_r) - y_p
-        yR.lock();
-        yR.clone(xP);
-        xP.unlock();
-        yR.modSub(xR, curve.pBN);
-        yR.modMult(lambda, curve.pBN);
-        lambda.unlock();
-        yR.modSub(yP, curve.pBN);
-        yP.unlock();
+    /**
+     * Adds the point (X_2, Y_2, Z_2) to this point in Jacobian coordinates. X_2 and Y_2 are expected in locked EC_BN_B
+     * and EC_BN_D, which are unlocked on return. If Z_2 is not one, X_1 and Y_1 of this point must already be
+     * multiplied by Z_2^2 and Z_2^3.
+     *
+     * @param otherZ Z_2, or null if the other point is affine
+     */
+    private void jacobianAdd(BigNat otherZ) {
+        BigNat u = rm.EC_BN_B;
+        BigNat s = rm.EC_BN_C;
+        BigNat t = rm.EC_BN_D;
+
+        // H = X_2 Z_1^2 - X_1, r = Y_2 Z_1^3 - Y_1
+        s.lock();
+        s.clone(jZ);
+        s.modSq(curve.pBN);
+        u.modMult(s, curve.pBN);
+        s.modMult(jZ, curve.pBN);
+        s.modMult(t, curve.pBN);
+        u.modSub(jX, curve.pBN);
+        s.modSub(jY, curve.pBN);
+
+        if (otherZ != null) {
+            jZ.modMult(otherZ, curve.pBN);
+        }
+        if (u.isZero()) {
+            // Same x coordinates, so the points are either equal or opposite
+            boolean samePoint = s.isZero();
+            u.unlock();
+            s.unlock();
+            t.unlock();
+            if (samePoint) {
+                jacobianDouble();
+            } else {
+                jZ.zero(); // P + (-P) is the point at infinity
+            }
+            return;
+        }
 
-        rm.lock(pointBuffer);
-        pointBuffer[0] = (byte) 0x04;
-        // If x_r.length() and y_r.length() is smaller than curve.COORD_SIZE due to leading zeroes which were shrunk before, then we must add these back
-        xR.prependZeros(curve.COORD_SIZE, pointBuffer, (short) 1);
-        xR.unlock();
-        yR.prependZeros(curve.COORD_SIZE, pointBuffer, (short) (1 + curve.COORD_SIZE));
-        yR.unlock();
-        setW(pointBuffer, (short) 0, curve.POINT_SIZE);
-        rm.unlock(pointBuffer);
+        // Z_3 = Z_1 Z_2 H
+        jZ.modMult(u, curve.pBN);
+
+        // V = X_1 H^2, u = H^3
+        t.clone(u);
+        t.modSq(curve.pBN);
+        u.modMult(t, curve.pBN);
+        t.modMult(jX, curve.pBN);
+
+        // X_3 = r^2 - H^3 - 2V
+        jX.clone(s);
+        jX.modSq(curve.pBN);
+        jX.modSubLazy(u, curve.pBN);
+        jX.modSubLazy(t, curve.pBN);
+        jX.modSubLazy(t, curve.pBN);
+        jX.modReduceLazy(curve.pBN);
+
+        // Y_3 = r(V - X_3) - Y_1 H^3
+        t.modSub(jX, curve.pBN);
+        t.modMult(s, curve.pBN);
+        s.unlock();
+        u.modMult(jY, curve.pBN);
+        jY.clone(t);
+        t.unlock();
+        jY.modSub(u, curve.pBN);
+        u.unlock();
     }
 
     /**
@@ -388,8 +698,25 @@ public class ECPoint {
      * @param scalar value of scalar for multiplication
      */
     public void multiplication(BigNat scalar) {
-        if (OperationSupport.getInstance().EC_SW_DOUBLE && scalar.equals(ResourceManager.TWO)) {
-            swDouble();
+        multiply(scalar);
+        store();
+    }
+
+    /**
+     * Multiplies this point by provided scalar like multiplication, but a software result is kept in Jacobian
+     * coordinates.
+     *
+     * @param scalar value of scalar for multiplication
+     */
+    private void multiply(BigNat scalar) {
+        OperationSupport os = OperationSupport.getInstance();
+        if (os.EC_SW_DOUBLE && scalar.equals(ResourceManager.TWO)) {
+            toJacobian();
+            jacobianDouble();
+        } else if (generator[0] && scalar.length() <= curve.COORD_SIZE) {
+            combMultiplication(scalar);
+        } else if (os.EC_SW_MULT || rm.ecMultKA == null || scalar.bitLength() <= os.EC_SW_MULT_MAX_BIT_LENGTH) {
+            swMultiplication(scalar);
         // } else if (rm.ecMultKA.getAlgorithm() == KeyAgreement.ALG_EC_SVDP_DH_PLAIN_XY) {
         } else if (rm.ecMultKA.getAlgorithm() == (byte) 6) {
             multXY(scalar);
@@ -401,6 +728,590 @@ public class ECPoint {
         }
     }
 
+    /**
+     * Fills the fixed-base comb table of the curve as described in ECCurve, using the registers of this point. The
+     * table is marked ready by the last write, so a torn fill is repeated by the next multiplication of G.
+     */
+    private void fillGeneratorTable() {
+        byte[] table = curve.gTable;
+        short teeth = curve.gTableTeeth;
+        short last = (short) ((short) (1 << teeth) * curve.POINT_SIZE);
+
+        // Entry 2^i temporarily holds 2^(i*d) G, and the last entry 2^d G
+        loadJacobian(curve.G, (short) 0);
+        writeAffine(table, (short) 0);
+        for (short i = 1; i < teeth || i == 1; ++i) {
+            for (short j = 0; j < curve.gTableSpacing; ++j) {
+                jacobianDouble();
+            }
+            scaleToAffine();
+            if (i < teeth) {
+                writeAffine(table, (short) ((short) (1 << i) * curve.POINT_SIZE));
+            }
+            if (i == 1) {
+                writeAffine(table, last);
+            }
+        }
+
+        // Entry high + lower is entry lower plus 2^(i*d) G for high = 2^i, entry high is overwritten last
+        for (short i = 0; i < teeth; ++i) {
+            short high = (short) (1 << i);
+            for (short lower = (short) (high - 1); lower >= 0; --lower) {
+                loadJacobian(table, (short) (lower * curve.POINT_SIZE));
+                if (i == 0) {
+                    jacobianDouble();
+                } else {
+                    swAdd(table, (short) (high * curve.POINT_SIZE));
+                }
+                scaleToAffine();
+                writeAffine(table, (short) ((short) (high + lower) * curve.POINT_SIZE));
+            }
+        }
+        // -(2^d - 1) G = G - 2^d G
+        loadJacobian(table, last);
+        jY.modNegate(curve.pBN);
+        swAdd(curve.G, (short) 0);
+        scaleToAffine();
+        writeAffine(table, last);
+        curve.gTableReady = true;
+    }
+
+    /**
+     * Multiplies the generator G by provided scalar using the fixed-base comb table of the curve. Bit i * spacing + j
+     * of the scalar is the i-th tooth of column j, and each column costs one doubling and one table addition. The
+     * entry is selected by scanning the whole table with masks, and columns without a set tooth add G as well, so
+     * neither the memory accesses nor the sequence of operations depends on the scalar. The field operations leak
+     * as described at swMultiplication. The G added by each column is cancelled by a final addition of the last
+     * entry. Stores the result into this point.
+     *
+     * @param scalar value of scalar for multiplication, at most COORD_SIZE bytes long
+     */
+    private void combMultiplication(BigNat scalar) {
+        if (!curve.gTableReady) {
+            fillGeneratorTable();
+        }
+        short teeth = curve.gTableTeeth;
+        short spacing = curve.gTableSpacing;
+        short bits = (short) (curve.COORD_SIZE * 8);
+        byte[] scalarBuffer = rm.POINT_ARRAY_A;
+        byte[] entry = rm.POINT_ARRAY_B;
+
+        rm.lock(scalarBuffer);
+        rm.lock(entry);
+        scalar.prependZeros(curve.COORD_SIZE, scalarBuffer, (short) 0);
+        for (short column = (short) (spacing - 1); column >= 0; --column) {
+            short index = 0;
+            for (short tooth = (short) (teeth - 1); tooth >= 0; --tooth) {
+                short bit = (short) (tooth * spacing + column);
+                index <<= 1;
+                if (bit < bits) {
+                    index |= (short) ((short) (scalarBuffer[(short) (curve.COORD_SIZE - 1 - (short) (bit >> 3))] >> (short) (bit & 7)) & 1);
+                }
+            }
+            selectEntry(curve.gTable, (short) (1 << teeth), index, entry);
+            if (column == (short) (spacing - 1)) {
+                loadJacobian(entry, (short) 0);
+            } else {
+                jacobianDouble();
+                swAdd(entry, (short) 0);
+            }
+        }
+        rm.unlock(entry);
+        rm.unlock(scalarBuffer);
+        swAdd(curve.gTable, (short) ((short) (1 << teeth) * curve.POINT_SIZE));
+    }
+
+    /**
+     * Copies entry index of a table of affine points into the output buffer. Every entry is read and masked, so the
+     * accessed memory does not depend on the index.
+     */
+    private void selectEntry(byte[] table, short entries, short index, byte[] output) {
+        short len = curve.POINT_SIZE;
+
+        Util.arrayFillNonAtomic(output, (short) 0, len, (byte) 0);
+        short offset = 0;
+        for (short j = 0; j < entries; ++j) {
+            // 0xff for the selected entry, the difference is at most 0xff so only zero turns negative
+            byte mask = (byte) ((short) ((short) (j ^ index) - 1) >> 8);
+            for (short k = 0; k < len; ++k) {
+                output[k] |= (byte) (table[offset] & mask);
+                ++offset;
+            }
+        }
+    }
+
+    /**
+     * Multiplies this point by provided scalar in software, so no KeyAgreement is needed. An even scalar k is replaced
+     * by the odd k + 1 and P is subtracted at the end, and the odd scalar is recoded into windows of signed odd
+     * digits, so every window costs the same doublings and one mixed addition with an odd multiple of P from
+     * TABLE_ARRAY. The entries are selected and negated with masks, so the sequence of point operations and the
+     * table accesses are regular and depend only on the length of the scalar.
+     * <p>
+     * This is not constant time. The field operations below still leak about the values of the coordinates:
+     * significantLength skips leading zero digits using the cached most significant digit, isLesser returns at the
+     * first differing digit, mod subtracts the modulus only when needed, and reading the result inverts Z through
+     * modExp, whose multiplications share these leaks. The result is kept in Jacobian coordinates. Scalars longer
+     * than the parts of glvSwMultiplication are multiplied by it on curves with an endomorphism.
+     *
+     * @param scalar value of scalar for multiplication
+     */
+    private void swMultiplication(BigNat scalar) {
+        if (jacobian[0] && jZ.isZero()) {
+            return; // multiple of the point at infinity
+        }
+        if (curve.glvBeta != null && scalar.length() > glvPartLength() && scalar.length() <= curve.COORD_SIZE) {
+            glvSwMultiplication(scalar);
+            return;
+        }
+        byte[] table = rm.TABLE_ARRAY;
+        byte[] scalarBuffer = rm.POINT_ARRAY_A;
+        byte[] entry = rm.POINT_ARRAY_B;
+        short len = scalar.length();
+        short bits = (short) (len * 8);
+        short window = swMultWindow(bits);
+        while ((short) (curve.POINT_SIZE << (short) (window - 1)) > (short) table.length) {
+            --window;
+        }
+        short windows = (short) ((short) (bits + window - 1) / window);
+
+        rm.lock(table);
+        fillOddMultiples(table, (short) 0, window);
+        rm.lock(scalarBuffer);
+        rm.lock(entry);
+
+        // k + 1 of an even k fits into len bytes as k is at most 2^bits - 2
+        scalar.prependZeros(len, scalarBuffer, (short) 0);
+        byte even = makeOdd(scalarBuffer, (short) 0, len);
+
+        for (short i = (short) (windows - 1); i >= 0; --i) {
+            selectDigit(table, window, scalarBuffer, (short) 0, len, i, windows, (byte) 0, entry);
+            if (i == (short) (windows - 1)) {
+                loadJacobian(entry, (short) 0);
+            } else {
+                for (short k = 0; k < window; ++k) {
+                    jacobianDouble();
+                }
+                swAdd(entry, (short) 0);
+            }
+        }
+
+        // Both kP - P and kP are computed, the mask of an even k keeps the first one
+        negateEntry(table, (short) 0, (byte) 0xff);
+        maskedAdd(table, table, (short) 0, (byte) -even);
+        rm.unlock(entry);
+        rm.unlock(scalarBuffer);
+        rm.unlock(table);
+    }
+
+    /**
+     * Multiplies this point by provided scalar like swMultiplication, using the endomorphism of the curve. The scalar
+     * reduced modulo r is split by ECCurve.decomposeScalar into k1 + k2 lambda, and both parts are recoded into the
+     * same fixed number of signed odd digits of half the length. Each window costs the doublings of one window and a
+     * mixed addition for each part, where the odd multiples of lambda P are those of P with x multiplied by beta, so
+     * the doublings of swMultiplication are halved. The signs of the parts and the corrections of the even parts are
+     * applied with masks. Besides the leaks listed at swMultiplication, the reduction of the scalar and its
+     * decomposition branch on their values.
+     *
+     * @param scalar value of scalar for multiplication, at most COORD_SIZE bytes long
+     */
+    private void glvSwMultiplication(BigNat scalar) {
+        byte[] table = rm.TABLE_ARRAY;
+        byte[] scalarBuffer = rm.POINT_ARRAY_A;
+        byte[] entry = rm.POINT_ARRAY_B;
+        BigNat reduced = rm.EC_BN_E;
+        BigNat k1 = rm.EC_BN_B;
+        BigNat k2 = rm.EC_BN_C;
+        short len = glvPartLength();
+        short window = swMultWindow((short) (len * 8));
+        while ((short) (curve.POINT_SIZE << (short) (window - 1)) > (short) table.length) {
+            --window;
+        }
+        short windows = (short) ((short) (len * 8 + window - 1) / window);
+
+        rm.lock(table);
+        fillOddMultiples(table, (short) 0, window);
+        rm.lock(scalarBuffer);
+        reduced.lock();
+        reduced.setSizeToMax(false);
+        reduced.copy(scalar);
+        reduced.mod(curve.rBN);
+        reduced.shrink();
+        k1.lock();
+        k2.lock();
+        byte negate = curve.decomposeScalar(reduced, k1, k2);
+        reduced.unlock();
+        k1.prependZeros(len, scalarBuffer, (short) 0);
+        k2.prependZeros(len, scalarBuffer, len);
+        k1.unlock();
+        k2.unlock();
+        // 0xff for a negative part, whose entries are all negated
+        byte negate1 = (byte) -(short) (negate & ECCurve.GLV_NEGATE_K1);
+        byte negate2 = (byte) -(short) ((short) (negate & ECCurve.GLV_NEGATE_K2) >> 1);
+        byte even1 = makeOdd(scalarBuffer, (short) 0, len);
+        byte even2 = makeOdd(scalarBuffer, len, len);
+        rm.lock(entry);
+
+        for (short i = (short) (windows - 1); i >= 0; --i) {
+            selectDigit(table, window, scalarBuffer, (short) 0, len, i, windows, negate1, entry);
+            if (i == (short) (windows - 1)) {
+                loadJacobian(entry, (short) 0);
+            } else {
+                for (short k = 0; k < window; ++k) {
+                    jacobianDouble();
+                }
+                swAdd(entry, (short) 0);
+            }
+            selectDigit(table, window, scalarBuffer, len, len, i, windows, negate2, entry);
+            endomorphism(entry);
+            swAdd(entry, (short) 0);
+        }
+
+        // The odd parts k + 1 of even parts counted P and lambda P once more, with the signs of their parts
+        Util.arrayCopyNonAtomic(table, (short) 0, entry, (short) 0, curve.POINT_SIZE);
+        negateEntry(entry, (short) 0, (byte) ~negate1);
+        maskedAdd(table, entry, (short) 0, (byte) -even1);
+        Util.arrayCopyNonAtomic(table, (short) 0, entry, (short) 0, curve.POINT_SIZE);
+        endomorphism(entry);
+        negateEntry(entry, (short) 0, (byte) ~negate2);
+        maskedAdd(table, entry, (short) 0, (byte) -even2);
+        rm.unlock(entry);
+        rm.unlock(scalarBuffer);
+        rm.unlock(table);
+    }
+
+    /**
+     * Length in bytes of the parts of glvSwMultiplication, half of the bit length of r and a byte for part + 1.
+     */
+    private short glvPartLength() {
+        return (short) ((short) ((short) ((short) (curve.rBN.bitLength() >> 1) + 7) >> 3) + 1);
+    }
+
+    /**
+     * Replaces the x coordinate of an affine point serialized in uncompressed form by beta x, which maps the point
+     * (x, y) to lambda (x, y).
+     */
+    private void endomorphism(byte[] buffer) {
+        BigNat x = rm.EC_BN_E;
+
+        x.lock();
+        x.setSize(curve.COORD_SIZE);
+        x.fromByteArray(buffer, (short) 1, curve.COORD_SIZE);
+        x.modMult(curve.glvBeta, curve.pBN);
+        x.prependZeros(curve.COORD_SIZE, buffer, (short) 1);
+        x.unlock();
+    }
+
+    /**
+     * Adds an affine point serialized in uncompressed form to this point if mask is 0xff and keeps this point if mask
+     * is 0. Both values are written in Jacobian coordinates after the first entry of the table and selected with the
+     * mask, so both cases perform the same operations.
+     */
+    private void maskedAdd(byte[] table, byte[] buffer, short offset, byte mask) {
+        short saved = curve.POINT_SIZE;
+        short corrected = (short) (saved + 3 * curve.COORD_SIZE);
+        writeJacobian(table, saved);
+        swAdd(buffer, offset);
+        writeJacobian(table, corrected);
+        for (short k = 0; k < (short) (3 * curve.COORD_SIZE); ++k) {
+            table[(short) (saved + k)] = (byte) ((table[(short) (saved + k)] & ~mask) | (table[(short) (corrected + k)] & mask));
+        }
+        jX.setSize(curve.COORD_SIZE);
+        jX.fromByteArray(table, saved, curve.COORD_SIZE);
+        jY.setSize(curve.COORD_SIZE);
+        jY.fromByteArray(table, (short) (saved + curve.COORD_SIZE), curve.COORD_SIZE);
+        jZ.setSize(curve.COORD_SIZE);
+        jZ.fromByteArray(table, (short) (saved + 2 * curve.COORD_SIZE), curve.COORD_SIZE);
+    }
+
+    /**
+     * Replaces an even scalar serialized in len bytes at offset by the odd scalar + 1 and keeps an odd one.
+     *
+     * @return 1 if the scalar was even, 0 otherwise
+     */
+    private static byte makeOdd(byte[] scalar, short offset, short len) {
+        byte even = (byte) (~scalar[(short) (offset + len - 1)] & 1);
+        short carry = even;
+        for (short i = (short) (offset + len - 1); i >= offset; --i) {
+            carry += (short) (scalar[i] & 0xff);
+            scalar[i] = (byte) carry;
+            carry = (short) ((short) (carry >> 8) & 0xff);
+        }
+        return even;
+    }
+
+    /**
+     * Copies the odd multiple of the table for digit i of the regular recoding of a scalar into the output buffer,
+     * negated if the digit is negative. A negate mask of 0xff negates the entry once more.
+     */
+    private void selectDigit(byte[] table, short window, byte[] scalar, short offset, short len, short i,
+                             short windows, byte negate, byte[] output) {
+        short digit = regularDigit(scalar, offset, len, i, window, windows);
+        short sign = (short) (digit >> 15);
+        short index = (short) ((short) ((short) ((short) (digit ^ sign) - sign) - 1) >> 1);
+        selectEntry(table, (short) (1 << (short) (window - 1)), index, output);
+        negateEntry(output, (short) 0, (byte) (sign ^ negate));
+    }
+
+    /**
+     * Digit i of the regular recoding of an odd scalar serialized in len bytes at offset. The window value is raised
+     * by one if it is even and lowered by 2^window if the next window is even, so every digit is odd and lies in
+     * (-2^window, 2^window). The most significant digit is never lowered, so it is positive.
+     */
+    private static short regularDigit(byte[] scalar, short offset, short len, short i, short window, short windows) {
+        short value = windowValue(scalar, offset, len, i, window);
+        short next = (short) (i + 1) < windows ? windowValue(scalar, offset, len, (short) (i + 1), window) : 1;
+        return (short) ((short) (value + (short) (~value & 1)) - (short) ((short) (~next & 1) << window));
+    }
+
+    /**
+     * Value of bits i * window to (i + 1) * window - 1 of a scalar serialized in len bytes at offset.
+     */
+    private static short windowValue(byte[] scalar, short offset, short len, short i, short window) {
+        short bits = (short) (len * 8);
+        short value = 0;
+        for (short k = (short) (window - 1); k >= 0; --k) {
+            short bit = (short) (i * window + k);
+            value <<= 1;
+            if (bit < bits) {
+                value |= (short) ((short) (scalar[(short) (offset + len - 1 - (short) (bit >> 3))] >> (short) (bit & 7)) & 1);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Replaces the y coordinate of an affine point serialized in uncompressed form by p - y if mask is 0xff and keeps
+     * it if mask is 0. Both cases perform the same operations.
+     */
+    private void negateEntry(byte[] buffer, short offset, byte mask) {
+        byte[] p = curve.p;
+        short y = (short) (offset + 1 + curve.COORD_SIZE);
+        short borrow = 0;
+        for (short k = (short) (curve.COORD_SIZE - 1); k >= 0; --k) {
+            short digit = (short) ((short) ((short) (p[k] & 0xff) - (short) (buffer[(short) (y + k)] & 0xff)) - borrow);
+            borrow = (short) ((short) (digit >> 8) & 1);
+            buffer[(short) (y + k)] = (byte) ((buffer[(short) (y + k)] & ~mask) | (digit & mask));
+        }
+    }
+
+    /**
+     * Writes X, Y and Z of this point in Jacobian coordinates into the buffer, COORD_SIZE bytes each.
+     */
+    private void writeJacobian(byte[] buffer, short offset) {
+        toJacobian();
+        jX.prependZeros(curve.COORD_SIZE, buffer, offset);
+        jY.prependZeros(curve.COORD_SIZE, buffer, (short) (offset + curve.COORD_SIZE));
+        jZ.prependZeros(curve.COORD_SIZE, buffer, (short) (offset + 2 * curve.COORD_SIZE));
+    }
+
+    /**
+     * Multiplies this point by provided public scalar in software, e.g., for signature verification. The scalar is
+     * processed from the most significant bit with a sliding window over the odd multiples P, 3P, 5P, ... stored in
+     * affine form in TABLE_ARRAY, so each window costs one mixed addition, and scalars of curves with an
+     * endomorphism are split by glvMultiplication. The running time and memory accesses depend on the scalar, so it
+     * must not be used with secret scalars, for which multiplication(BigNat) runs a regular sequence.
+     *
+     * @param scalar value of scalar for multiplication
+     */
+    public void publicMultiplication(BigNat scalar) {
+        if (jacobian[0] && jZ.isZero()) {
+            return; // multiple of the point at infinity
+        }
+        short bits = scalar.bitLength();
+        if (bits == 0) {
+            toJacobian();
+            jZ.zero();
+            return;
+        }
+        if (curve.glvBeta != null && bits > (short) (curve.KEY_BIT_LENGTH >> 1) && scalar.isLesser(curve.rBN)) {
+            glvMultiplication(scalar);
+            store();
+            return;
+        }
+        byte[] table = rm.TABLE_ARRAY;
+        short window = swMultWindow(bits);
+        while ((short) (curve.POINT_SIZE << (short) (window - 1)) > (short) table.length) {
+            --window;
+        }
+
+        rm.lock(table);
+        fillOddMultiples(table, (short) 0, window);
+
+        short i = (short) (bits - 1);
+        boolean started = false;
+        while (i >= 0) {
+            if (!scalar.testBit(i)) {
+                jacobianDouble();
+                --i;
+                continue;
+            }
+            // The window is the longest run of at most window bits from i that ends with a set bit
+            short j = (short) (i - window + 1);
+            if (j < 0) {
+                j = 0;
+            }
+            while (!scalar.testBit(j)) {
+                ++j;
+            }
+            short index = 0;
+            for (short k = i; k > j; --k) {
+                index = (short) (index << 1);
+                if (scalar.testBit(k)) {
+                    ++index;
+                }
+            }
+            if (started) {
+                for (short k = i; k >= j; --k) {
+                    jacobianDouble();
+                }
+                swAdd(table, (short) (index * curve.POINT_SIZE));
+            } else {
+                loadJacobian(table, (short) (index * curve.POINT_SIZE));
+                started = true;
+            }
+            i = (short) (j - 1);
+        }
+        rm.unlock(table);
+        store();
+    }
+
+    /**
+     * Fills the table from offset with the odd multiples P, 3P, ..., (2^window - 1)P of this point in affine form.
+     * The value of this point is lost.
+     */
+    private void fillOddMultiples(byte[] table, short offset, short window) {
+        // (2k + 1)P is 2(kP) + P for odd k and 2((k + 1)P) - P for even k, both odd multiples at entry k / 2
+        if (jacobian[0]) {
+            scaleToAffine();
+        } else {
+            cacheAffine();
+        }
+        writeAffine(table, offset);
+        for (short k = 1; k < (short) (1 << (short) (window - 1)); ++k) {
+            loadJacobian(table, (short) (offset + (short) ((short) (k >> 1) * curve.POINT_SIZE)));
+            jacobianDouble();
+            if ((short) (k & 1) == 0) {
+                jY.modNegate(curve.pBN);
+                swAdd(table, offset);
+                jY.modNegate(curve.pBN);
+            } else {
+                swAdd(table, offset);
+            }
+            scaleToAffine();
+            writeAffine(table, (short) (offset + (short) (k * curve.POINT_SIZE)));
+        }
+    }
+
+    /**
+     * Multiplies this point by provided scalar using the endomorphism of the curve. The scalar is split into
+     * k1 + k2 lambda with half-length parts, so k1 P + k2 (lambda P) is computed by Straus' method over the affine
+     * points P, lambda P and their sum, which halves the doublings of publicMultiplication. The parts are kept in the
+     * last slot of TABLE_ARRAY, which leaves the scratch BigNats to the inversions of the table points.
+     *
+     * @param scalar value of scalar for multiplication, lesser than r
+     */
+    private void glvMultiplication(BigNat scalar) {
+        byte[] table = rm.TABLE_ARRAY;
+        short parts = (short) (3 * curve.POINT_SIZE);
+        BigNat k1 = rm.EC_BN_B;
+        BigNat k2 = rm.EC_BN_C;
+
+        rm.lock(table);
+        k1.lock();
+        k2.lock();
+        byte negate = curve.decomposeScalar(scalar, k1, k2);
+        short bits = k1.bitLength() > k2.bitLength() ? k1.bitLength() : k2.bitLength();
+        k1.prependZeros(curve.COORD_SIZE, table, parts);
+        k2.prependZeros(curve.COORD_SIZE, table, (short) (parts + curve.COORD_SIZE));
+        k1.unlock();
+        k2.unlock();
+
+        // Negative parts are applied to the points, lambda (x, y) is (beta x, y)
+        if (jacobian[0]) {
+            scaleToAffine();
+        } else {
+            cacheAffine();
+        }
+        writeAffine(table, (short) 0);
+        loadJacobian(table, (short) 0);
+        if ((short) (negate & ECCurve.GLV_NEGATE_K1) != 0) {
+            jY.modNegate(curve.pBN);
+            writeAffine(table, (short) 0);
+        }
+        jX.modMult(curve.glvBeta, curve.pBN);
+        if ((short) (negate & ECCurve.GLV_NEGATE_K1) != (short) ((short) (negate & ECCurve.GLV_NEGATE_K2) >> 1)) {
+            jY.modNegate(curve.pBN);
+        }
+        writeAffine(table, curve.POINT_SIZE);
+        swAdd(table, (short) 0);
+        scaleToAffine();
+        writeAffine(table, (short) (2 * curve.POINT_SIZE));
+
+        boolean started = false;
+        for (short i = (short) (bits - 1); i >= 0; --i) {
+            if (started) {
+                jacobianDouble();
+            }
+            short index = 0;
+            if (partBit(table, parts, i)) {
+                index = 1;
+            }
+            if (partBit(table, (short) (parts + curve.COORD_SIZE), i)) {
+                index += 2;
+            }
+            if (index == 0) {
+                continue;
+            }
+            if (started) {
+                swAdd(table, (short) ((short) (index - 1) * curve.POINT_SIZE));
+            } else {
+                loadJacobian(table, (short) ((short) (index - 1) * curve.POINT_SIZE));
+                started = true;
+            }
+        }
+        rm.unlock(table);
+    }
+
+    /**
+     * Tests a bit of a scalar part of glvMultiplication serialized in COORD_SIZE bytes.
+     */
+    private boolean partBit(byte[] buffer, short offset, short index) {
+        byte digit = buffer[(short) (offset + curve.COORD_SIZE - 1 - (short) (index >> 3))];
+        return (short) (digit & (short) (1 << (short) (index & 7))) != 0;
+    }
+
+    /**
+     * Window size of swMultiplication and publicMultiplication for a scalar of a given bit length, the table holds
+     * 2^(window - 1) points.
+     */
+    private static short swMultWindow(short bits) {
+        if (bits > (short) 160) {
+            return 4;
+        }
+        if (bits > (short) 48) {
+            return 3;
+        }
+        return bits > (short) 12 ? (short) 2 : (short) 1;
+    }
+
+    /**
+     * Sets this point to an affine point serialized in uncompressed form, held in Jacobian coordinates with Z = 1.
+     *
+     * @param buffer array with serialized point
+     * @param offset start offset within input array
+     */
+    private void loadJacobian(byte[] buffer, short offset) {
+        jX.setSize(curve.COORD_SIZE);
+        jX.fromByteArray(buffer, (short) (offset + 1), curve.COORD_SIZE);
+        jY.setSize(curve.COORD_SIZE);
+        jY.fromByteArray(buffer, (short) (offset + 1 + curve.COORD_SIZE), curve.COORD_SIZE);
+        jZ.setSize(curve.COORD_SIZE);
+        jZ.setValue((byte) 1);
+        jacobian[0] = true;
+        affine[0] = false;
+        generator[0] = false;
+    }
+
     /**
      * Multiply this point by a given scalar and add another point to the result.
      *
@@ -415,8 +1326,129 @@ public class ECPoint {
             setW(pointBuffer, (short) 0, multAndAddKA(scalar, point, pointBuffer, (short) 0));
             rm.unlock(pointBuffer);
         } else {
-            multiplication(scalar);
-            add(point);
+            multiply(scalar);
+            swAdd(point);
+            store();
+        }
+    }
+
+    /**
+     * Computes the sum of scalars[i] * points[i] and stores it into this point. The terms are interleaved (Straus'
+     * method), so all of them share a single chain of doublings. Two terms use windows of two bits over the affine
+     * points P_1, 3P_1, P_2 and 3P_2 in TABLE_ARRAY, which costs about one addition per three scalar bits of each
+     * term. More terms, or a point at infinity, cost one addition per set scalar bit. The running time depends on the
+     * scalars, so they must be public. The computation runs in software using Jacobian coordinates.
+     *
+     * @param scalars scalars of the terms
+     * @param points points of the terms, as many as scalars; MUST NOT contain this point
+     */
+    public void multiScalarMult(BigNat[] scalars, ECPoint[] points) {
+        if (scalars.length != points.length) {
+            ISOException.throwIt(ReturnCodes.SW_ECPOINT_INVALID);
+        }
+        short bits = 0;
+        for (short i = 0; i < (short) scalars.length; ++i) {
+            short len = scalars[i].bitLength();
+            if (len > bits) {
+                bits = len;
+            }
+        }
+        if ((short) points.length == 2 && bits > 0 && !(points[0].jacobian[0] && points[0].jZ.isZero())
+                && !(points[1].jacobian[0] && points[1].jZ.isZero())) {
+            twoScalarMult(scalars[0], points[0], scalars[1], points[1], bits);
+            store();
+            return;
+        }
+
+        // Start from the point at infinity
+        jX.setSize(curve.COORD_SIZE);
+        jY.setSize(curve.COORD_SIZE);
+        jZ.setSize(curve.COORD_SIZE);
+        jZ.zero();
+        jacobian[0] = true;
+        affine[0] = false;
+        generator[0] = false;
+
+        for (short bit = (short) (bits - 1); bit >= 0; --bit) {
+            if (!jacobian[0] || !jZ.isZero()) {
+                toJacobian();
+                jacobianDouble();
+            }
+            for (short i = 0; i < (short) points.length; ++i) {
+                if (scalars[i].testBit(bit)) {
+                    swAdd(points[i]);
+                }
+            }
+        }
+        store();
+    }
+
+    /**
+     * Computes k_1 P_1 + k_2 P_2 for multiScalarMult with interleaved windows of two bits. A window starts at a set
+     * bit; if the next lower bit is set too, 3P is added one doubling later, otherwise P is added at once.
+     *
+     * @param bits bit length of the longer scalar, at least one
+     */
+    private void twoScalarMult(BigNat scalar1, ECPoint point1, BigNat scalar2, ECPoint point2, short bits) {
+        byte[] table = rm.TABLE_ARRAY;
+        short second = (short) (2 * curve.POINT_SIZE);
+
+        rm.lock(table);
+        copyValue(point1);
+        fillOddMultiples(table, (short) 0, (short) 2);
+        copy(point2);
+        fillOddMultiples(table, second, (short) 2);
+
+        // Lowest bit of a pending window of 3P of each term, -1 if none
+        short end1 = -1;
+        short end2 = -1;
+        boolean started = false;
+        for (short i = (short) (bits - 1); i >= 0; --i) {
+            if (started) {
+                jacobianDouble();
+            }
+            short offset = -1;
+            if (end1 == i) {
+                offset = curve.POINT_SIZE;
+                end1 = -1;
+            } else if (scalar1.testBit(i)) {
+                if (i > 0 && scalar1.testBit((short) (i - 1))) {
+                    end1 = (short) (i - 1);
+                } else {
+                    offset = 0;
+                }
+            }
+            if (offset >= 0) {
+                addEntry(table, offset, started);
+                started = true;
+            }
+            offset = -1;
+            if (end2 == i) {
+                offset = (short) (second + curve.POINT_SIZE);
+                end2 = -1;
+            } else if (scalar2.testBit(i)) {
+                if (i > 0 && scalar2.testBit((short) (i - 1))) {
+                    end2 = (short) (i - 1);
+                } else {
+                    offset = second;
+                }
+            }
+            if (offset >= 0) {
+                addEntry(table, offset, started);
+                started = true;
+            }
+        }
+        rm.unlock(table);
+    }
+
+    /**
+     * Adds an affine table entry to this point, or loads it if no entry has been added yet.
+     */
+    private void addEntry(byte[] table, short offset, boolean started) {
+        if (started) {
+            swAdd(table, offset);
+        } else {
+            loadJacobian(table, offset);
         }
     }
 
@@ -484,111 +1516,156 @@ public class ECPoint {
 
     /**
      * Multiply value of this point by provided scalar using X-only key agreement. Stores the result into this point.
+     * The X coordinate comes from a single KeyAgreement and Y is the square root of x^3 + ax + b. An ECDSA signature
+     * made with the scalar as the private key for the generator P is verified with the candidate point, which tells
+     * whether the other root is the right one. Without EC_HW_X_ECDSA, multXPair is used instead. The scalar is not
+     * modified.
      *
      * @param scalar value of scalar for multiplication
      */
     private void multX(BigNat scalar) {
+        if (!OperationSupport.getInstance().EC_HW_X_ECDSA) {
+            multXPair(scalar);
+            return;
+        }
         byte[] pointBuffer = rm.POINT_ARRAY_A;
-        byte[] pointBuffer2 = rm.POINT_ARRAY_B;
         byte[] resultBuffer = rm.ARRAY_A;
-        BigNat x = rm.EC_BN_B;
         BigNat ySq = rm.EC_BN_C;
-        BigNat y = rm.EC_BN_D;
-        BigNat lambda = rm.EC_BN_E;
-        BigNat tmp = rm.EC_BN_F;
-        BigNat denominator = rm.EC_BN_D;
+        BigNat tmp = rm.EC_BN_E;
 
+        // The key agreement below leaves the scalar in the private key, so P becomes the generator of both keys
         rm.lock(pointBuffer);
-        short len = multXKA(scalar, pointBuffer, (short) 0);
-        x.lock();
-        x.fromByteArray(pointBuffer, (short) 0, len);
-        rm.unlock(pointBuffer);
+        short len = getW(pointBuffer, (short) 0);
+        curve.disposablePriv.setG(pointBuffer, (short) 0, len);
+        curve.disposablePub.setG(pointBuffer, (short) 0, len);
+
+        // Work on scalar mod r, so that it fits the private key and the caller's value is untouched
+        tmp.lock();
+        tmp.setSizeToMax(false);
+        tmp.copy(scalar);
+        tmp.mod(curve.rBN);
+        tmp.shrink();
+        rm.lock(resultBuffer);
+        len = multXKA(tmp, resultBuffer, (short) 0);
+        tmp.unlock();
+        affine[0] = false;
+        jX.setSize(curve.COORD_SIZE);
+        jX.fromByteArray(resultBuffer, (short) 0, len);
+        rm.unlock(resultBuffer);
 
-        // Solve for Y in Weierstrass equation: Y^2 = X^3 + XA + B = x(x^2+A)+B
+        // Y^2 = X^3 + XA + B = x(x^2+A)+B has a root, as x belongs to a point of the curve
         ySq.lock();
-        ySq.clone(x);
-        ySq.modExp(ResourceManager.TWO, curve.pBN);
+        ySq.clone(jX);
+        ySq.modSq(curve.pBN);
         ySq.modAdd(curve.aBN, curve.pBN);
-        ySq.modMult(x, curve.pBN);
+        ySq.modMult(jX, curve.pBN);
         ySq.modAdd(curve.bBN, curve.pBN);
-        y.lock();
-        y.clone(ySq);
+        jY.setSize(curve.COORD_SIZE);
+        jY.clone(ySq);
         ySq.unlock();
-        y.modSqrt(curve.pBN);
-
-        // Construct public key with <x, y>
-        rm.lock(pointBuffer);
-        pointBuffer[0] = 0x04;
-        x.prependZeros(curve.COORD_SIZE, pointBuffer, (short) 1);
-        x.unlock();
-        y.prependZeros(curve.COORD_SIZE, pointBuffer, (short) (1 + curve.COORD_SIZE));
-        y.unlock();
+        jY.modSqrt(curve.pBN, curve.sqrtAlgorithm, curve.sqrtExp, curve.sqrtC, curve.sqrtS);
+        jZ.setSize(curve.COORD_SIZE);
+        jZ.setValue((byte) 1);
+
+        writeAffine(pointBuffer, (short) 0);
+        curve.disposablePub.setW(pointBuffer, (short) 0, curve.POINT_SIZE);
+        rm.lock(resultBuffer);
+        if (!SignVerifyECDSA(curve.disposablePriv, curve.disposablePub, rm.verifyEcdsa, resultBuffer)) {
+            jY.modNegate(curve.pBN);
+        }
+        rm.unlock(resultBuffer);
+        storeAffine(pointBuffer, (short) 0);
+        rm.unlock(pointBuffer);
+        generator[0] = false;
+    }
 
-        boolean negate;
-        if (OperationSupport.getInstance().EC_HW_X_ECDSA) {
-            rm.lock(pointBuffer2);
-            getW(pointBuffer2, (short) 0);
-            curve.disposablePriv.setG(pointBuffer2, (short) 0, curve.POINT_SIZE);
-            curve.disposablePub.setG(pointBuffer2, (short) 0, curve.POINT_SIZE);
-            rm.unlock(pointBuffer2);
+    /**
+     * Multiply value of this point by provided scalar using two X-only key agreements, for cards without ECDSA on the
+     * curve. Stores the result into this point. The Y coordinate is recovered from the X coordinates of scalar * P
+     * and (scalar + 1) * P, so no square root is computed. The result is kept in Jacobian coordinates. The scalar is
+     * not modified.
+     *
+     * @param scalar value of scalar for multiplication
+     */
+    private void multXPair(BigNat scalar) {
+        byte[] resultBuffer = rm.ARRAY_A;
+        BigNat xP = rm.EC_BN_B;
+        BigNat yP = rm.EC_BN_C;
+        BigNat x1 = rm.EC_BN_D;
+        BigNat tmp = rm.EC_BN_E;
 
-            setW(pointBuffer, (short) 0, curve.POINT_SIZE);
+        cacheAffine();
+        xP.lock();
+        xP.clone(jX);
+        yP.lock();
+        yP.clone(jY);
 
-            // Check if <x, y> corresponds to the "secret" (i.e., our scalar)
-            rm.lock(resultBuffer);
-            scalar.prependZeros((short) curve.r.length, resultBuffer, (short) 0);
-            curve.disposablePriv.setS(resultBuffer, (short) 0, (short) curve.r.length);
-            curve.disposablePub.setW(pointBuffer, (short) 0, curve.POINT_SIZE);
-            negate = !SignVerifyECDSA(curve.disposablePriv, curve.disposablePub, rm.verifyEcdsa, resultBuffer);
-            rm.unlock(resultBuffer);
-        } else {
-            // Check that (<x, y> + P)_x == ((scalar + 1)P)_x
-            x.lock();
-            rm.lock(resultBuffer);
-            scalar.increment();
-            len = multXKA(scalar, resultBuffer, (short) 0);
-            x.fromByteArray(resultBuffer, (short) 0, len);
+        // Work on scalar mod r, so that scalar + 1 below neither wraps nor touches the caller's value
+        tmp.lock();
+        tmp.setSizeToMax(false);
+        tmp.copy(scalar);
+        tmp.mod(curve.rBN);
+        tmp.shrink();
+
+        // x_0 = (scalar P)_x is kept directly in the Jacobian coordinates of this point
+        rm.lock(resultBuffer);
+        short len = multXKA(tmp, resultBuffer, (short) 0);
+        affine[0] = false;
+        jX.setSize(curve.COORD_SIZE);
+        jX.fromByteArray(resultBuffer, (short) 0, len);
+        if (jX.equals(xP)) {
+            // scalar P = ±P, and (scalar + 1)P may be the point at infinity
             rm.unlock(resultBuffer);
-            scalar.decrement(); // keep the original
-
-            rm.lock(pointBuffer2);
-            getW(pointBuffer2, (short) 0);
-            setW(pointBuffer, (short) 0, curve.POINT_SIZE);
-
-            // y_1 - y_2
-            lambda.lock();
-            lambda.fromByteArray(pointBuffer2, (short) (1 + curve.COORD_SIZE), curve.COORD_SIZE);
-            tmp.lock();
-            tmp.fromByteArray(pointBuffer, (short) (1 + curve.COORD_SIZE), curve.COORD_SIZE);
-            lambda.modSub(tmp, curve.pBN);
-
-            // (x_1 - x_2)^-1
-            denominator.lock();
-            denominator.fromByteArray(pointBuffer2, (short) 1, curve.COORD_SIZE);
-            tmp.fromByteArray(pointBuffer, (short) 1, curve.COORD_SIZE);
-            denominator.modSub(tmp, curve.pBN);
-            denominator.modInv(curve.pBN);
-
-            // λ = (y_1 - y_2)/(x_1 - x_2)
-            lambda.modMult(denominator, curve.pBN);
-            denominator.unlock();
-
-            // x_3 = λ^2 - x_1 - x_2
-            lambda.modSq(curve.pBN);
-            tmp.fromByteArray(pointBuffer2, (short) 1, curve.COORD_SIZE);
-            lambda.modSub(tmp, curve.pBN);
-            tmp.fromByteArray(pointBuffer, (short) 1, curve.COORD_SIZE);
-            lambda.modSub(tmp, curve.pBN);
+            xP.unlock();
+            yP.unlock();
+            boolean one = tmp.isOne();
             tmp.unlock();
-
-            // If <x, y> + P != (scalar + 1)P, negate the point
-            negate = !lambda.equals(x);
-            lambda.unlock();
-            x.unlock();
+            if (!one) {
+                negate();
+            }
+            return;
         }
-        rm.unlock(pointBuffer);
-        if (negate)
-            negate();
+
+        // x_1 = ((scalar + 1)P)_x, where scalar + 1 < r as scalar = r - 1 was handled above
+        tmp.resize(curve.rBN.length());
+        tmp.increment();
+        len = multXKA(tmp, resultBuffer, (short) 0);
+        x1.lock();
+        x1.setSize(curve.COORD_SIZE);
+        x1.fromByteArray(resultBuffer, (short) 0, len);
+        rm.unlock(resultBuffer);
+
+        // Okeya-Sakurai y-recovery: y_0 = (2b + (a + x_P x_0)(x_P + x_0) - x_1 (x_P - x_0)^2) / 2y_P
+        tmp.clone(xP);
+        tmp.modSub(jX, curve.pBN);
+        tmp.modSq(curve.pBN);
+        x1.modMult(tmp, curve.pBN);
+        tmp.clone(xP);
+        tmp.modMult(jX, curve.pBN);
+        tmp.modAdd(curve.aBN, curve.pBN);
+        jY.setSize(curve.COORD_SIZE);
+        jY.clone(xP);
+        xP.unlock();
+        jY.modAdd(jX, curve.pBN);
+        jY.modMult(tmp, curve.pBN);
+        jY.modAddLazy(curve.bBN, curve.pBN);
+        jY.modAddLazy(curve.bBN, curve.pBN);
+        jY.modSubLazy(x1, curve.pBN);
+        jY.modReduceLazy(curve.pBN);
+        x1.unlock();
+
+        // The division is deferred by taking Z = 2y_P, X = x_0 Z^2 and Y = y_0 Z^3
+        jZ.setSize(curve.COORD_SIZE);
+        jZ.clone(yP);
+        yP.unlock();
+        jZ.modAdd(jZ, curve.pBN);
+        tmp.clone(jZ);
+        tmp.modSq(curve.pBN);
+        jX.modMult(tmp, curve.pBN);
+        jY.modMult(tmp, curve.pBN);
+        tmp.unlock();
+        jacobian[0] = true;
+        generator[0] = false;
     }
 
     /**
@@ -619,21 +1696,20 @@ public class ECPoint {
 
     /**
      * Computes negation of this point.
-     * The operation will dump point into uncompressed_point_arr, negate Y and restore back
+     * The operation will dump point into uncompressed_point_arr, negate Y and restore back.
      */
     public void negate() {
+        generator[0] = false;
+        if (jacobian[0]) {
+            jY.modNegate(curve.pBN);
+            return;
+        }
         byte[] pointBuffer = rm.POINT_ARRAY_A;
-        BigNat y = rm.EC_BN_C;
 
-        y.lock();
+        cacheAffine();
+        jY.modNegate(curve.pBN);
         rm.lock(pointBuffer);
-        point.getW(pointBuffer, (short) 0);
-        y.setSize(curve.COORD_SIZE);
-        y.fromByteArray(pointBuffer, (short) (1 + curve.COORD_SIZE), curve.COORD_SIZE);
-        y.modNegate(curve.pBN);
-        y.prependZeros(curve.COORD_SIZE, pointBuffer, (short) (1 + curve.COORD_SIZE));
-        y.unlock();
-        setW(pointBuffer, (short) 0, curve.POINT_SIZE);
+        point.setW(pointBuffer, (short) 0, writeAffine(pointBuffer, (short) 0));
         rm.unlock(pointBuffer);
     }
 
@@ -663,6 +1739,7 @@ public class ECPoint {
     private boolean fromX(BigNat x) {
         BigNat ySq = rm.EC_BN_C;
         BigNat y = rm.EC_BN_D;
+        BigNat tmp = rm.EC_BN_E;
         byte[] pointBuffer = rm.POINT_ARRAY_A;
 
         //Y^2 = X^3 + XA + B = x(x^2+A)+B
@@ -674,11 +1751,19 @@ public class ECPoint {
         ySq.modAdd(curve.bBN, curve.pBN);
         y.lock();
         y.clone(ySq);
-        if (!y.isQuadraticResidue(curve.pBN)) {
+        y.modSqrt(curve.pBN, curve.sqrtAlgorithm, curve.sqrtExp, curve.sqrtC, curve.sqrtS);
+
+        // Square root of a non-residue is meaningless, check the result instead of a separate Euler's criterion
+        tmp.lock();
+        tmp.clone(y);
+        tmp.modSq(curve.pBN);
+        boolean residue = tmp.equals(ySq);
+        tmp.unlock();
+        ySq.unlock();
+        if (!residue) {
+            y.unlock();
             return false;
         }
-        ySq.unlock();
-        y.modSqrt(curve.pBN);
 
         // Construct public key with <x, y_1>
         rm.lock(pointBuffer);
@@ -692,18 +1777,266 @@ public class ECPoint {
     }
 
     /**
-     * Returns true if Y coordinate is even; false otherwise.
+     * Hashes a message to a point of the curve as hash_to_curve of RFC 9380 with expand_message_xmd using SHA-256
+     * and the simplified SWU map, i.e., the P256_XMD:SHA-256_SSWU_RO_ and secp256k1_XMD:SHA-256_SSWU_RO_ suites.
+     * The message is expanded into two field elements, each is mapped to a point and their sum is stored into this
+     * point. Unlike fromX, the map does a fixed number of field operations and never fails. The curve must have
+     * the map constants set by ECCurve.setHashToCurve.
      *
-     * @return true if Y coordinate is even; false otherwise
+     * @param msg array with the message
+     * @param msgOffset start offset of the message
+     * @param msgLen length of the message
+     * @param dst array with the domain separation tag
+     * @param dstOffset start offset of the domain separation tag
+     * @param dstLen length of the domain separation tag, at most 255 bytes
      */
-    public boolean isYEven() {
-        byte[] pointBuffer = rm.POINT_ARRAY_A;
+    public void hashToCurve(byte[] msg, short msgOffset, short msgLen, byte[] dst, short dstOffset, short dstLen) {
+        if (curve.sswuZ == null) {
+            ISOException.throwIt(ReturnCodes.SW_OPERATION_NOT_SUPPORTED);
+        }
+        byte[] buffer = rm.TABLE_ARRAY;
+        byte[] pointBuffer = rm.POINT_ARRAY_B;
+        BigNat u0 = rm.EC_BN_A;
+        BigNat u1 = rm.EC_BN_F;
+        // Each field element takes L = ceil((ceil(log2(p)) + 128) / 8) bytes
+        short len = (short) (curve.COORD_SIZE + 16);
+
+        // The uniform bytes are released before the map, which may need the table for software exponentiation
+        rm.lock(buffer);
+        expandMessage(msg, msgOffset, msgLen, dst, dstOffset, dstLen, buffer, (short) (2 * len));
+        u0.lock();
+        loadFieldElement(u0, buffer, len, len);
+        u1.lock();
+        u1.clone(u0);
+        loadFieldElement(u0, buffer, (short) 0, len);
+        rm.unlock(buffer);
 
         rm.lock(pointBuffer);
-        point.getW(pointBuffer, (short) 0);
-        boolean result = pointBuffer[(short) (curve.POINT_SIZE - 1)] % 2 == 0;
+        mapToCurve(u0);
+        writeAffine(pointBuffer, (short) 0);
+        mapToCurve(u1);
+        swAdd(pointBuffer, (short) 0);
         rm.unlock(pointBuffer);
-        return result;
+        store();
+    }
+
+    /**
+     * Loads a field element from a big-endian byte string reduced modulo p.
+     *
+     * @param u output for the field element, at least length bytes long
+     * @param buffer array with the byte string
+     * @param offset start offset of the byte string
+     * @param length length of the byte string
+     */
+    private void loadFieldElement(BigNat u, byte[] buffer, short offset, short length) {
+        u.setSize(length);
+        u.fromByteArray(buffer, offset, length);
+        u.mod(curve.pBN);
+        u.resize(curve.COORD_SIZE);
+    }
+
+    /**
+     * Computes expand_message_xmd of RFC 9380 with SHA-256 and stores the uniform bytes at the start of buffer.
+     * The bytes just after the last hash block are used as scratch.
+     *
+     * @param length number of uniform bytes, at most 255 blocks of SHA-256
+     */
+    private void expandMessage(byte[] msg, short msgOffset, short msgLen, byte[] dst, short dstOffset, short dstLen,
+                               byte[] buffer, short length) {
+        MessageDigest hash = rm.hashEngine;
+        byte[] b0 = rm.HASH_ARRAY;
+        short blockLen = hash.getLength();
+        short scratch = (short) ((short) ((short) (length + blockLen - 1) / blockLen) * blockLen);
+
+        // b_0 = H(Z_pad || msg || I2OSP(length, 2) || I2OSP(0, 1) || DST || I2OSP(len(DST), 1))
+        rm.lock(b0);
+        hash.reset();
+        Util.arrayFillNonAtomic(buffer, (short) 0, (short) 64, (byte) 0);
+        hash.update(buffer, (short) 0, (short) 64);
+        hash.update(msg, msgOffset, msgLen);
+        Util.setShort(buffer, scratch, length);
+        buffer[(short) (scratch + 2)] = 0;
+        hash.update(buffer, scratch, (short) 3);
+        hash.update(dst, dstOffset, dstLen);
+        buffer[scratch] = (byte) dstLen;
+        hash.doFinal(buffer, scratch, (short) 1, b0, (short) 0);
+
+        // b_i = H(strxor(b_0, b_(i - 1)) || I2OSP(i, 1) || DST || I2OSP(len(DST), 1)) with b_0 itself for i = 1
+        Util.arrayCopyNonAtomic(b0, (short) 0, buffer, (short) 0, blockLen);
+        for (short i = 1, offset = 0; offset < length; ++i, offset += blockLen) {
+            if (i > 1) {
+                for (short j = 0; j < blockLen; ++j) {
+                    buffer[(short) (offset + j)] = (byte) (buffer[(short) (offset - blockLen + j)] ^ b0[j]);
+                }
+            }
+            hash.update(buffer, offset, blockLen);
+            buffer[scratch] = (byte) i;
+            hash.update(buffer, scratch, (short) 1);
+            hash.update(dst, dstOffset, dstLen);
+            buffer[scratch] = (byte) dstLen;
+            hash.doFinal(buffer, scratch, (short) 1, buffer, offset);
+        }
+        rm.unlock(b0);
+    }
+
+    /**
+     * Maps a field element to a point by the simplified SWU map of RFC 9380 followed by the isogeny map if the curve
+     * has one, and stores it into this point in Jacobian coordinates with Z = 1. The square root and the square test
+     * share one exponentiation, so the map costs one inversion and one exponentiation regardless of the input. The
+     * inversions are exponentiations by p - 2, and the exceptional case, the square root and the sign of y are
+     * chosen by masked selection between candidates that are always both computed. Only the tests producing the
+     * masks still branch, and the zero test of d and the comparison with gx1 exit early on some values.
+     *
+     * @param u field element in a locked EC_BN_A or EC_BN_F, which is unlocked on return
+     */
+    private void mapToCurve(BigNat u) {
+        BigNat t = rm.EC_BN_B;
+        BigNat d = rm.EC_BN_C;
+        BigNat g = rm.EC_BN_D;
+        BigNat y = rm.EC_BN_E;
+        BigNat p = curve.pBN;
+
+        // t = Z u^2, d = t^2 + t
+        t.lock();
+        t.clone(u);
+        t.modSq(p);
+        t.modMult(curve.sswuZ, p);
+        d.lock();
+        d.clone(t);
+        d.modSq(p);
+        d.modAdd(t, p);
+
+        // x1 = B (d + 1) / (-A d), or B / (Z A) in the exceptional case d = 0
+        byte exceptional = d.isZero() ? (byte) 0xff : (byte) 0;
+        jX.setSize(curve.COORD_SIZE);
+        jX.copy(d);
+        jX.increment();
+        jX.modMult(curve.sswuB, p);
+        jZ.setSize(curve.COORD_SIZE);
+        jZ.copy(d);
+        jZ.modNegate(p);
+        d.setSize(curve.COORD_SIZE);
+        d.copy(curve.sswuB);
+        jX.select(d, exceptional);
+        d.copy(curve.sswuZ);
+        jZ.select(d, exceptional);
+        d.unlock();
+        jZ.modMult(curve.sswuA, p);
+        jZ.primeModInv(p);
+        jX.modMult(jZ, p);
+
+        // gx1 = (x1^2 + A) x1 + B, its square root is y1 = gx1^((p + 1) / 4) if gx1 is a square
+        g.lock();
+        g.clone(jX);
+        g.modSq(p);
+        g.modAdd(curve.sswuA, p);
+        g.modMult(jX, p);
+        g.modAdd(curve.sswuB, p);
+        y.lock();
+        y.clone(g);
+        y.modExp(curve.sqrtExp, p);
+        y.resize(curve.COORD_SIZE);
+        jY.clone(y);
+        jY.modSq(p);
+        byte square = jY.equals(g) ? (byte) 0xff : (byte) 0;
+        g.unlock();
+
+        // Otherwise y1^2 = -gx1, and x2 = t x1 with gx2 = Z^3 u^6 gx1 has the square root y2 = Z u^3 sqrt(-Z) y1
+        t.modMult(jX, p);
+        jY.clone(u);
+        jY.modSq(p);
+        jY.modMult(u, p);
+        jY.modMult(curve.sswuZ, p);
+        jY.modMult(curve.sswuC, p);
+        jY.modMult(y, p);
+        jY.select(y, square);
+        jX.select(t, (byte) ~square);
+        t.unlock();
+
+        // The sign of y is the parity of u
+        y.clone(jY);
+        y.modNegate(p);
+        jY.select(y, u.isOdd() != jY.isOdd() ? (byte) 0xff : (byte) 0);
+        y.unlock();
+        jZ.setValue((byte) 1);
+        jacobian[0] = true;
+        affine[0] = false;
+        generator[0] = false;
+
+        if (curve.isoMap != null) {
+            isoMap(u); // u is no longer needed
+        }
+        u.unlock();
+    }
+
+    /**
+     * Maps the point of the isogenous curve held in jX and jY with Z = 1 to this curve. The rational functions
+     * x = x_num / x_den and y = y' y_num / y_den share a single inversion of x_den y_den.
+     *
+     * @param inv locked scratch BigNat for the inversion
+     */
+    private void isoMap(BigNat inv) {
+        BigNat xNum = rm.EC_BN_B;
+        BigNat xDen = rm.EC_BN_C;
+        BigNat yNum = rm.EC_BN_D;
+        BigNat yDen = rm.EC_BN_E;
+        BigNat p = curve.pBN;
+
+        xNum.lock();
+        isoPolynomial(xNum, (short) 0, (short) 4, false);
+        xDen.lock();
+        isoPolynomial(xDen, (short) 4, (short) 2, true);
+        yNum.lock();
+        isoPolynomial(yNum, (short) 6, (short) 4, false);
+        yDen.lock();
+        isoPolynomial(yDen, (short) 10, (short) 3, true);
+
+        inv.clone(xDen);
+        inv.modMult(yDen, p);
+        inv.primeModInv(p);
+        jX.clone(xNum);
+        jX.modMult(yDen, p);
+        jX.modMult(inv, p);
+        jY.modMult(yNum, p);
+        jY.modMult(xDen, p);
+        jY.modMult(inv, p);
+        xNum.unlock();
+        xDen.unlock();
+        yNum.unlock();
+        yDen.unlock();
+    }
+
+    /**
+     * Evaluates a polynomial of the isogeny map at x held in jX by Horner's rule.
+     *
+     * @param result output for the value
+     * @param first index of the lowest coefficient in the isogeny map
+     * @param count number of coefficients
+     * @param monic true if the polynomial has an omitted leading coefficient one
+     */
+    private void isoPolynomial(BigNat result, short first, short count, boolean monic) {
+        BigNat[] map = curve.isoMap;
+        short i = (short) (first + count - 1);
+        if (monic) {
+            result.clone(jX);
+            result.modAdd(map[i], curve.pBN);
+        } else {
+            result.clone(map[i]);
+        }
+        for (--i; i >= first; --i) {
+            result.modMult(jX, curve.pBN);
+            result.modAdd(map[i], curve.pBN);
+        }
+    }
+
+    /**
+     * Returns true if Y coordinate is even; false otherwise.
+     *
+     * @return true if Y coordinate is even; false otherwise
+     */
+    public boolean isYEven() {
+        cacheAffine();
+        return !jY.isOdd();
     }
 
     /**
@@ -737,6 +2070,9 @@ public class ECPoint {
 
     static byte[] msg = {(byte) 0x01, (byte) 0x01, (byte) 0x02, (byte) 0x03};
 
+    /**
+     * Signs a fixed message with the private key and verifies the signature with the public key.
+     */
     public static boolean SignVerifyECDSA(ECPrivateKey privateKey, ECPublicKey publicKey, Signature signEngine, byte[] tmpSignArray) {
         signEngine.init(privateKey, Signature.MODE_SIGN);
         short signLen = signEngine.sign(msg, (short) 0, (short) msg.length, tmpSignArray, (short) 0);
@@ -774,7 +2110,7 @@ public class ECPoint {
             y.modAdd(curve.aBN, curve.pBN);
             y.modMult(x, curve.pBN);
             y.modAdd(curve.bBN, curve.pBN);
-            y.modSqrt(curve.pBN);
+            y.modSqrt(curve.pBN, curve.sqrtAlgorithm, curve.sqrtExp, curve.sqrtC, curve.sqrtS);
 
             rm.lock(pointBuffer);
             pointBuffer[0] = 0x04;
@@ -833,7 +2169,7 @@ public class ECPoint {
             y.modMult(x, curve.pBN);
             x.unlock();
             y.modAdd(curve.bBN, curve.pBN);
-            y.modSqrt(curve.pBN);
+            y.modSqrt(curve.pBN, curve.sqrtAlgorithm, curve.sqrtExp, curve.sqrtC, curve.sqrtS);
             p.lock();
             boolean odd = y.isOdd();
             if ((!odd && output[offset] != (byte) 0x02) || (odd && output[offset] != (byte) 0x03)) {
@@ -0,0 +1,47 @@
+package opencrypto.jcmathlib;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+
+/**
+ * Precomputed values for software Montgomery multiplication modulo a fixed odd modulus.
+ *
+ * The context is attached to the modulus using BigNat.setMontgomeryContext and is then used by modMult, modSq
+ * and modExp whenever they would otherwise fall back to the schoolbook multiplication followed by remainderDivide.
+ * The precomputation is paid once, every subsequent multiplication only needs two Montgomery products.
+ */
+public class MontgomeryContext {
+    final BigNat mod;
+    final BigNat rSquared; // R^2 mod mod, where R = 2^(8 * mod.length())
+    byte n0Inv; // -mod^-1 mod 2^8
+
+    /**
+     * Creates a context for the given modulus. The modulus object is referenced, not copied.
+     *
+     * @param mod odd modulus
+     * @param rm resource manager
+     */
+    public MontgomeryContext(BigNat mod, ResourceManager rm) {
+        this.mod = mod;
+        rSquared = new BigNat(mod.length(), JCSystem.MEMORY_TYPE_PERSISTENT, rm);
+        refresh();
+    }
+
+    /**
+     * Recomputes the precomputed values. Must be called whenever the value of the modulus changes.
+     */
+    public void refresh() {
+        if (!mod.isOdd()) {
+            ISOException.throwIt(ReturnCodes.SW_BIGNAT_INVALIDMOD);
+        }
+
+        n0Inv = mod.negInverseDigit();
+
+        // R^2 mod mod computed by repeated modular doubling of 1
+        rSquared.setSize(mod.length());
+        rSquared.setValue((byte) 1);
+        for (short i = (short) (mod.length() * 16); i > 0; --i) {
+            rSquared.modAdd(rSquared, mod);
+        }
+    }
+}
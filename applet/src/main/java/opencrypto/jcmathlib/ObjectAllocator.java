@@ -37,8 +37,11 @@ public class ObjectAllocator {
     public static final byte POINT_ARRAY_A = 16;
     public static final byte POINT_ARRAY_B = 17;
     public static final byte HASH_ARRAY = 18;
+    public static final byte EC_POINT_JACOBIAN = 19; // Jacobian coordinates of every ECPoint
+    public static final byte TABLE_ARRAY = 20; // BigNat.batchModInv prefixes, software modExp powers, ECPoint odd multiples
+    public static final byte BN_H = 21;
     
-    public static final short ALLOCATOR_TYPE_ARRAY_LENGTH = (short) (HASH_ARRAY + 1);
+    public static final short ALLOCATOR_TYPE_ARRAY_LENGTH = (short) (BN_H + 1);
     
     /**
      * Creates new allocator control object, resets performance counters
@@ -79,10 +82,13 @@ public class ObjectAllocator {
         ALLOCATOR_TYPE_ARRAY[BN_E] = JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
         ALLOCATOR_TYPE_ARRAY[BN_F] = JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
         // ALLOCATOR_TYPE_ARRAY[BN_G] = JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
+        // ALLOCATOR_TYPE_ARRAY[BN_H] = JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
         // ALLOCATOR_TYPE_ARRAY[EC_BN_B] = JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
         // ALLOCATOR_TYPE_ARRAY[EC_BN_C] = JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
         // ALLOCATOR_TYPE_ARRAY[POINT_ARRAY_A] = JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
         // ALLOCATOR_TYPE_ARRAY[POINT_ARRAY_B] = JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
+        // ALLOCATOR_TYPE_ARRAY[EC_POINT_JACOBIAN] = JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
+        // ALLOCATOR_TYPE_ARRAY[TABLE_ARRAY] = JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
     }   
 
     /**
@@ -29,6 +29,9 @@ public class OperationSupport {
     public boolean RSA_EXTRA_MOD = false;
     public boolean RSA_RESIZE_MOD = true;
     public boolean RSA_APPEND_MOD = false;
+    public short RSA_KEY_CACHE_SIZE = 1; // RSA keys used by modExp, more than one caches them by (modulus, exponent) with two tags in RAM each; 4 holds the p - 2, (p + 1) / 4, (p - 1) / 2 and 2 keys of a curve
+    public short KARATSUBA_THRESHOLD = 64; // operand length in bytes from which software mult uses Karatsuba, 0 disables it
+    public short SW_EXP_MAX_BIT_LENGTH = 17; // longest exponent computed by software modExp when it can avoid the RSA engine
 
     public boolean EC_HW_XY = false;
     public boolean EC_HW_X = true;
@@ -37,7 +40,11 @@ public class OperationSupport {
     public boolean EC_PRECISE_BITLENGTH = true;
     public boolean EC_SET_COFACTOR = false;
     public boolean EC_GEN = true;
-    public boolean EC_HW_X_ECDSA = true;
+    public boolean EC_HW_X_ECDSA = true; // X-only multiplication picks the root of Y by ECDSA, otherwise by a second KeyAgreement
+    public short EC_G_TABLE_TEETH = 0; // teeth of the fixed-base comb table for G multiplication, 0 disables the table
+    public boolean EC_SW_MULT = false; // scalar multiplication in software even if a KeyAgreement engine is available
+    public short EC_SW_MULT_MAX_BIT_LENGTH = 4; // longest scalar multiplied in software to avoid the KeyAgreement setup
+    public boolean EC_SW_LAZY = false; // keep software EC results in transient Jacobian coordinates until read, which saves an inversion per call but loses them on a card reset unless normalized
 
     private OperationSupport() {
     }
@@ -58,6 +65,7 @@ public class OperationSupport {
                 EC_SW_DOUBLE = true;
                 EC_PRECISE_BITLENGTH = false;
                 RSA_SQ = false;
+                RSA_KEY_CACHE_SIZE = 4;
                 break;
             case JCOP21:
                 RSA_PUB = true;
@@ -83,11 +91,13 @@ public class OperationSupport {
                 RSA_PUB = true;
                 EC_HW_XY = true;
                 EC_HW_ADD = true;
+                RSA_KEY_CACHE_SIZE = 4;
                 break;
             case JCOP4_P71:
                 DEFERRED_INITIALIZATION = true;
                 EC_HW_XY = true;
                 EC_HW_ADD = true;
+                RSA_KEY_CACHE_SIZE = 4;
                 break;
             case SECORA:
                 MIN_RSA_BIT_LENGTH = 1024;
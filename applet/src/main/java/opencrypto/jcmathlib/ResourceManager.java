@@ -17,18 +17,27 @@ public class ResourceManager {
     KeyAgreement ecMultKA;
     KeyAgreement ecAddKA;
     Signature verifyEcdsa;
-    Cipher sqCiph, modSqCiph, expCiph;
-    RSAPublicKey sqPub, modSqPub, expPub;
-    RSAPrivateKey sqPriv, modSqPriv, expPriv;
+    Cipher sqCiph, modSqCiph;
+    RSAPublicKey sqPub, modSqPub;
+    RSAPrivateKey sqPriv, modSqPriv;
     BigNat fixedMod;
 
-    byte[] ARRAY_A, ARRAY_B, POINT_ARRAY_A, POINT_ARRAY_B, HASH_ARRAY;
+    // RSA keys for modExp, with more than one slot an LRU cache keyed by the (modulus, exponent) pair of each slot
+    Cipher[] expCiph;
+    RSAPublicKey[] expPub;
+    RSAPrivateKey[] expPriv;
+    BigNat[] expCacheMod, expCacheExp; // transient, as the exponent may be secret; null with a single slot
+    boolean[] expCacheValid; // slot key matches its tag, cleared while the slot is re-keyed and by a card reset
+    short[] expCacheAge; // last use of each slot, the last item is the use counter
+    public short[] expCacheStats; // hits and misses of the modExp key cache since a card reset, for profiling
+
+    byte[] ARRAY_A, ARRAY_B, POINT_ARRAY_A, POINT_ARRAY_B, HASH_ARRAY, TABLE_ARRAY;
 
     static byte[] CONST_ONE = {0x01};
     static byte[] CONST_TWO = {0x02};
 
     BigNat BN_WORD;
-    BigNat BN_A, BN_B, BN_C, BN_D, BN_E, BN_F, BN_G;
+    BigNat BN_A, BN_B, BN_C, BN_D, BN_E, BN_F, BN_G, BN_H;
     BigNat EC_BN_A, EC_BN_B, EC_BN_C, EC_BN_D, EC_BN_E, EC_BN_F;
     public static BigNat TWO, THREE, ONE_COORD;
 
@@ -93,6 +102,8 @@ public class ResourceManager {
         hashEngine = MessageDigest.getInstance(MessageDigest.ALG_SHA_256, false);
         HASH_ARRAY = memAlloc.allocateByteArray(hashEngine.getLength(), memAlloc.getAllocatorType(ObjectAllocator.HASH_ARRAY));
         locker.registerLock(HASH_ARRAY);
+        TABLE_ARRAY = memAlloc.allocateByteArray((short) (4 * (MAX_POINT_SIZE + 1)), memAlloc.getAllocatorType(ObjectAllocator.TABLE_ARRAY));
+        locker.registerLock(TABLE_ARRAY);
 
         BN_WORD = new BigNat((short) 2, memAlloc.getAllocatorType(ObjectAllocator.BN_WORD), this);
 
@@ -103,6 +114,7 @@ public class ResourceManager {
         BN_E = new BigNat((short) (2 * MAX_BIGNAT_SIZE), memAlloc.getAllocatorType(ObjectAllocator.BN_E), this);
         BN_F = new BigNat(MAX_SQ_LENGTH, memAlloc.getAllocatorType(ObjectAllocator.BN_F), this);
         BN_G = new BigNat(MAX_SQ_LENGTH, memAlloc.getAllocatorType(ObjectAllocator.BN_G), this);
+        BN_H = new BigNat(MAX_BIGNAT_SIZE, memAlloc.getAllocatorType(ObjectAllocator.BN_H), this);
 
         EC_BN_A = new BigNat(MAX_POINT_SIZE, memAlloc.getAllocatorType(ObjectAllocator.EC_BN_A), this);
         EC_BN_B = new BigNat(MAX_COORD_SIZE, memAlloc.getAllocatorType(ObjectAllocator.EC_BN_B), this);
@@ -126,8 +138,10 @@ public class ResourceManager {
             // ecMultKA = KeyAgreement.getInstance(KeyAgreement.ALG_EC_SVDP_DH_PLAIN, false);
             ecMultKA = KeyAgreement.getInstance((byte) 3, false);
         }
-        // verifyEcdsa = Signature.getInstance(Signature.ALG_ECDSA_SHA_256, false);
-        verifyEcdsa = Signature.getInstance((byte) 33, false);
+        if (OperationSupport.getInstance().EC_HW_X_ECDSA) {
+            // verifyEcdsa = Signature.getInstance(Signature.ALG_ECDSA_SHA_256, false);
+            verifyEcdsa = Signature.getInstance((byte) 33, false);
+        }
         if (OperationSupport.getInstance().EC_HW_ADD) {
             // ecAddKA = KeyAgreement.getInstance(KeyAgreement.ALG_EC_PACE_GM, false);
             ecAddKA = KeyAgreement.getInstance((byte) 5, false);
@@ -154,9 +168,35 @@ public class ResourceManager {
         }
 
         // RSA Exp Helpers
-        expPub = (RSAPublicKey) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PUBLIC, MAX_EXP_BIT_LENGTH, false);
-        expPriv = (RSAPrivateKey) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PRIVATE, MAX_EXP_BIT_LENGTH, false);
-        expCiph = Cipher.getInstance(Cipher.ALG_RSA_NOPAD, false);
+        if (OperationSupport.getInstance().RSA_EXP) {
+            short slots = OperationSupport.getInstance().RSA_KEY_CACHE_SIZE;
+            expCiph = new Cipher[slots];
+            if (OperationSupport.getInstance().RSA_PUB) {
+                expPub = new RSAPublicKey[slots];
+            } else {
+                expPriv = new RSAPrivateKey[slots];
+            }
+            for (short i = 0; i < slots; ++i) {
+                expCiph[i] = Cipher.getInstance(Cipher.ALG_RSA_NOPAD, false);
+                if (OperationSupport.getInstance().RSA_PUB) {
+                    expPub[i] = (RSAPublicKey) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PUBLIC, MAX_EXP_BIT_LENGTH, false);
+                } else {
+                    expPriv[i] = (RSAPrivateKey) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PRIVATE, MAX_EXP_BIT_LENGTH, false);
+                }
+            }
+            // A single key is re-keyed by every modExp, so it needs no tags
+            if (slots > 1) {
+                expCacheMod = new BigNat[slots];
+                expCacheExp = new BigNat[slots];
+                expCacheValid = JCSystem.makeTransientBooleanArray(slots, JCSystem.CLEAR_ON_RESET);
+                for (short i = 0; i < slots; ++i) {
+                    expCacheMod[i] = new BigNat(MAX_EXP_LENGTH, JCSystem.MEMORY_TYPE_TRANSIENT_RESET, this);
+                    expCacheExp[i] = new BigNat(MAX_EXP_LENGTH, JCSystem.MEMORY_TYPE_TRANSIENT_RESET, this);
+                }
+                expCacheAge = memAlloc.allocateShortArray((short) (slots + 1), JCSystem.MEMORY_TYPE_TRANSIENT_RESET);
+                expCacheStats = memAlloc.allocateShortArray((short) 2, JCSystem.MEMORY_TYPE_TRANSIENT_RESET);
+            }
+        }
 
         rng = RandomData.getInstance(RandomData.ALG_SECURE_RANDOM);
     }
@@ -219,6 +259,113 @@ public class ResourceManager {
         tmpMod.unlock();
     }
 
+    /**
+     * Finds the modExp cache slot with RSA key set to the given modulus and exponent. If no such slot exists, the
+     * least recently used slot is keyed with the values. With a single slot, its key is set on every call. The cipher
+     * of the slot is initialized on every call, as some implementations (e.g., jCardSim) do not allow doFinal to be
+     * repeated without it.
+     *
+     * Tags live in RAM, so no exponent, which may be a secret such as an RSA private exponent, is written to EEPROM
+     * outside the key objects, and a cache miss costs no EEPROM writes besides the key itself. A card reset clears
+     * them together with the validity flags. Exponent tags are compared in constant time and all slots are always
+     * searched, so the lookup reveals only whether and where the exponent was cached.
+     *
+     * @return index of the slot in expCiph
+     */
+    short expSlot(BigNat exp, BigNat mod) {
+        short slots = (short) expCiph.length;
+        if (slots == 1) {
+            setExpKey((short) 0, exp, mod);
+            return 0;
+        }
+        short slot = 0;
+        short hit = -1;
+        for (short i = 0; i < slots; ++i) {
+            if (expCacheAge[i] < expCacheAge[slot]) {
+                slot = i;
+            }
+            if (expCacheValid[i] && expCacheMod[i].equals(mod) && expCacheExp[i].equalsConstantTime(exp) && hit < 0) {
+                hit = i;
+            }
+        }
+        if (hit >= 0) {
+            slot = hit;
+        }
+
+        if (expCacheAge[slots] == (short) 0x7fff) {
+            for (short j = 0; j <= slots; ++j) {
+                expCacheAge[j] = 0;
+            }
+        }
+        expCacheAge[slots]++;
+        expCacheAge[slot] = expCacheAge[slots];
+        if (hit >= 0) {
+            expCacheStats[0]++;
+            if (OperationSupport.getInstance().RSA_PUB) {
+                expCiph[slot].init(expPub[slot], Cipher.MODE_DECRYPT);
+            } else {
+                expCiph[slot].init(expPriv[slot], Cipher.MODE_DECRYPT);
+            }
+            return slot;
+        }
+
+        // The slot is marked invalid while its key and tag are rewritten and becomes valid only by the last write, so
+        // an exception thrown midway never leaves a key paired with a tag of other values
+        expCacheStats[1]++;
+        expCacheValid[slot] = false;
+        setExpKey(slot, exp, mod);
+        expCacheMod[slot].clone(mod);
+        expCacheExp[slot].clone(exp);
+        expCacheValid[slot] = true;
+        return slot;
+    }
+
+    /**
+     * Sets the RSA key of a modExp slot to the given modulus and exponent and initializes its cipher.
+     */
+    private void setExpKey(short slot, BigNat exp, BigNat mod) {
+        byte[] tmpBuffer = ARRAY_A;
+        lock(tmpBuffer);
+        short len = exp.copyToByteArray(tmpBuffer, (short) 0);
+        if (OperationSupport.getInstance().RSA_PUB) {
+            if (OperationSupport.getInstance().RSA_KEY_REFRESH) {
+                // Simulator fails when reusing the original object
+                expPub[slot] = (RSAPublicKey) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PUBLIC, MAX_EXP_BIT_LENGTH, false);
+            }
+            expPub[slot].setExponent(tmpBuffer, (short) 0, len);
+            len = modulusToByteArray(mod, tmpBuffer);
+            expPub[slot].setModulus(tmpBuffer, (short) 0, len);
+            expCiph[slot].init(expPub[slot], Cipher.MODE_DECRYPT);
+        } else {
+            if (OperationSupport.getInstance().RSA_KEY_REFRESH) {
+                // Simulator fails when reusing the original object
+                expPriv[slot] = (RSAPrivateKey) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PRIVATE, MAX_EXP_BIT_LENGTH, false);
+            }
+            expPriv[slot].setExponent(tmpBuffer, (short) 0, len);
+            len = modulusToByteArray(mod, tmpBuffer);
+            expPriv[slot].setModulus(tmpBuffer, (short) 0, len);
+            expCiph[slot].init(expPriv[slot], Cipher.MODE_DECRYPT);
+        }
+        unlock(tmpBuffer);
+    }
+
+    /**
+     * Serializes modulus in the form required by RSA engine.
+     *
+     * @return modulus length
+     */
+    private short modulusToByteArray(BigNat mod, byte[] buffer) {
+        if (!OperationSupport.getInstance().RSA_RESIZE_MOD) {
+            return mod.copyToByteArray(buffer, (short) 0);
+        }
+        if (OperationSupport.getInstance().RSA_APPEND_MOD) {
+            mod.appendZeros(MAX_EXP_LENGTH, buffer, (short) 0);
+        } else {
+            mod.prependZeros(MAX_EXP_LENGTH, buffer, (short) 0);
+        }
+        return MAX_EXP_LENGTH;
+    }
+
     /**
      * Erase all values stored in helper objects
      */
@@ -232,6 +379,7 @@ public class ResourceManager {
         BN_E.erase();
         BN_F.erase();
         BN_G.erase();
+        BN_H.erase();
 
         EC_BN_A.erase();
         EC_BN_B.erase();
@@ -243,10 +391,11 @@ public class ResourceManager {
         Util.arrayFillNonAtomic(ARRAY_A, (short) 0, (short) ARRAY_A.length, (byte) 0);
         Util.arrayFillNonAtomic(ARRAY_B, (short) 0, (short) ARRAY_B.length, (byte) 0);
         Util.arrayFillNonAtomic(POINT_ARRAY_A, (short) 0, (short) POINT_ARRAY_A.length, (byte) 0);
+        Util.arrayFillNonAtomic(TABLE_ARRAY, (short) 0, (short) TABLE_ARRAY.length, (byte) 0);
     }
 
     /// [DependencyBegin:ObjectLocker]
-    public static final byte LOCKER_ARRAYS = 5;
+    public static final byte LOCKER_ARRAYS = 6;
     public static final byte LOCKER_OBJECTS = 1;
     public ObjectLocker locker = new ObjectLocker((short) (LOCKER_ARRAYS + LOCKER_OBJECTS));
 
@@ -301,6 +450,9 @@ public class ResourceManager {
         if (BN_G.isLocked()) {
             BN_G.unlock();
         }
+        if (BN_H.isLocked()) {
+            BN_H.unlock();
+        }
 
         if (EC_BN_A.isLocked()) {
             EC_BN_A.unlock();
@@ -0,0 +1,91 @@
+package opencrypto.jcmathlib;
+
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+
+/**
+ * Precomputed values for reduction modulo a prime of a special form.
+ *
+ * The context is attached to the modulus using BigNat.setSpecialFormContext and is then used by mod, and through it
+ * by the software modMult and modSq, for values of at most twice the length of the modulus. Instead of a division or
+ * multiplications by a reciprocal, the digits above the modulus length are folded onto the lower ones using a few
+ * additions of shifted parts of the value.
+ */
+public class SpecialFormContext {
+    public static final byte NONE = 0;
+    public static final byte PSEUDO_MERSENNE = 1; // 2^(8k) - c with c of at most k / 4 digits, e.g., secp256k1
+    public static final byte NIST_P256 = 2; // 2^256 - 2^224 + 2^192 + 2^96 - 1
+
+    private static final byte[] P256 = {
+            (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01,
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+            (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+            (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+            (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+            (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff
+    };
+
+    final BigNat mod;
+    final byte form;
+    final BigNat c; // 2^(8k) - mod for PSEUDO_MERSENNE, null otherwise
+
+    /**
+     * Creates a context for the given modulus. The modulus object is referenced, not copied.
+     *
+     * @param mod modulus of the given form without leading zeroes
+     * @param form PSEUDO_MERSENNE or NIST_P256, e.g., as returned by detectForm
+     * @param rm resource manager
+     */
+    public SpecialFormContext(BigNat mod, byte form, ResourceManager rm) {
+        if (form != PSEUDO_MERSENNE && form != NIST_P256) {
+            ISOException.throwIt(ReturnCodes.SW_BIGNAT_INVALIDMOD);
+        }
+        this.mod = mod;
+        this.form = form;
+        c = form == PSEUDO_MERSENNE ? new BigNat((short) (mod.length() + 1), JCSystem.MEMORY_TYPE_PERSISTENT, rm) : null;
+        refresh();
+    }
+
+    /**
+     * Recomputes the precomputed values. Must be called whenever the value of the modulus changes.
+     */
+    public void refresh() {
+        if (form == NIST_P256) {
+            if (mod.length() != (short) P256.length) {
+                ISOException.throwIt(ReturnCodes.SW_BIGNAT_INVALIDMOD);
+            }
+            return;
+        }
+        c.setPowerOfTwo((short) (mod.length() * 8));
+        c.subtract(mod);
+        c.shrink();
+        if (c.length() > (short) (mod.length() / 4)) {
+            ISOException.throwIt(ReturnCodes.SW_BIGNAT_INVALIDMOD);
+        }
+    }
+
+    /**
+     * Recognizes the special form of a modulus given by its big-endian representation.
+     *
+     * @param mod byte array with the modulus
+     * @param offset offset of the modulus in the array
+     * @param length length of the modulus
+     * @return PSEUDO_MERSENNE, NIST_P256, or NONE if the modulus has no supported special form
+     */
+    public static byte detectForm(byte[] mod, short offset, short length) {
+        if (length == (short) P256.length && Util.arrayCompare(mod, offset, P256, (short) 0, length) == 0) {
+            return NIST_P256;
+        }
+        short ones = 0;
+        while (ones < length && mod[(short) (offset + ones)] == (byte) 0xff) {
+            ++ones;
+        }
+        if (ones < length && (short) (length - ones) <= (short) (length / 4)) {
+            return PSEUDO_MERSENNE;
+        }
+        return NONE;
+    }
+}
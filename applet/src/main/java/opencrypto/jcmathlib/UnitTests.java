@@ -12,6 +12,7 @@ import javacard.framework.SystemException;
 import javacard.framework.TransactionException;
 import javacard.framework.Util;
 import javacard.security.CryptoException;
+import javacard.security.KeyAgreement;
 
 /**
  * @author Vasilios Mavroudis and Petr Svenda and Antonin Dufka
@@ -24,6 +25,7 @@ public class UnitTests extends Applet {
     public final static byte INS_FREE_MEMORY = (byte) 0x06;
     public final static byte INS_GET_ALLOCATOR_STATS = (byte) 0x07;
     public final static byte INS_GET_PROFILE_LOCKS = (byte) 0x08;
+    public final static byte INS_GET_EXP_CACHE_STATS = (byte) 0x0a;
 
     public final static byte INS_INT_STR = (byte) 0x09;
     public final static byte INS_INT_ADD = (byte) 0x10;
@@ -42,6 +44,10 @@ public class UnitTests extends Applet {
     public final static byte INS_BN_MUL_SCHOOL = (byte) 0x27;
     public final static byte INS_BN_SET_VALUE = (byte) 0x28;
     public final static byte INS_BN_SHIFT_LEFT = (byte) 0x29;
+    public final static byte INS_BN_EQUALS = (byte) 0x2a;
+    public final static byte INS_BN_MUTATE_COMPARE = (byte) 0x2b;
+    public final static byte INS_BN_MUL_KARATSUBA = (byte) 0x2c;
+    public final static byte INS_BN_DIV = (byte) 0x2d;
 
     public final static byte INS_BN_ADD_MOD = (byte) 0x30;
     public final static byte INS_BN_SUB_MOD = (byte) 0x31;
@@ -50,6 +56,15 @@ public class UnitTests extends Applet {
     public final static byte INS_BN_INV_MOD = (byte) 0x34;
     public final static byte INS_BN_SQ_MOD = (byte) 0x35;
     public final static byte INS_BN_SQRT_MOD = (byte) 0x36;
+    public final static byte INS_BN_MUL_MOD_CURVE = (byte) 0x37;
+    public final static byte INS_BN_INV_MOD_BATCH = (byte) 0x38;
+    public final static byte INS_BN_LAZY_MOD = (byte) 0x39;
+    public final static byte INS_BN_INV_MOD_BINARY = (byte) 0x3a;
+    public final static byte INS_BN_MOD_BARRETT = (byte) 0x3b;
+    public final static byte INS_BN_MUL_MOD_SPECIAL = (byte) 0x3c;
+    public final static byte INS_BN_SQ_MOD_SPECIAL = (byte) 0x3d;
+    public final static byte INS_BN_MUL_MOD_RSA_SQ = (byte) 0x3e;
+    public final static byte INS_BN_EXP_MOD_SW = (byte) 0x3f;
 
     public final static byte INS_EC_GEN = (byte) 0x40;
     public final static byte INS_EC_DBL = (byte) 0x41;
@@ -61,6 +76,17 @@ public class UnitTests extends Applet {
     public final static byte INS_EC_IS_Y_EVEN = (byte) 0x48;
     public final static byte INS_EC_MUL_ADD = (byte) 0x49;
     public final static byte INS_EC_ENCODE = (byte) 0x4a;
+    public final static byte INS_EC_ADD_CHAIN = (byte) 0x4b;
+    public final static byte INS_EC_MULTI_MUL = (byte) 0x4c;
+    public final static byte INS_EC_MUL_SW = (byte) 0x4d;
+    public final static byte INS_EC_MUL_GLV = (byte) 0x4e;
+    public final static byte INS_EC_NORMALIZE_ALL = (byte) 0x4f;
+    public final static byte INS_EC_HASH_TO_CURVE = (byte) 0x50;
+    public final static byte INS_EC_MUL_COMB = (byte) 0x51;
+    public final static byte INS_EC_MUL_X = (byte) 0x52;
+    public final static byte INS_EC_AS_PUBLIC_KEY = (byte) 0x53;
+    public final static byte INS_EC_MUL_PUBLIC = (byte) 0x54;
+    public final static byte INS_EC_MULTI_MUL_3 = (byte) 0x55;
 
     // Specific codes to propagate exceptions caught
     // lower byte of exception is value as defined in JCSDK/api_classic/constant-values.htm
@@ -85,10 +111,20 @@ public class UnitTests extends Applet {
     ECCurve curve;
     ECPoint point1;
     ECPoint point2;
+    ECPoint point3;
+    ECPoint[] points;
+    ECPoint[] points3;
+    ECCurve curveK1;
+    ECPoint pointK1;
+    BigNat[] scalars;
+    BigNat[] scalars3;
+    KeyAgreement ecMultX;
 
     BigNat bn1;
     BigNat bn2;
     BigNat bn3;
+    BigNat bnBarrettMod;
+    BarrettContext barrett;
 
     Integer int1;
     Integer int2;
@@ -112,12 +148,34 @@ public class UnitTests extends Applet {
 
         // Pre-allocate test objects (no new allocation for every tested operation)
         curve = new ECCurve(SecP256r1.p, SecP256r1.a, SecP256r1.b, SecP256r1.G, SecP256r1.r, SecP256r1.k, rm);
+        curve.setHashToCurve(SecP256r1.sswuZ);
         memoryInfoOffset = snapshotAvailableMemory((short) 3, memoryInfo, memoryInfoOffset);
 
         memoryInfoOffset = snapshotAvailableMemory((short) 5, memoryInfo, memoryInfoOffset);
         point1 = new ECPoint(curve);
         memoryInfoOffset = snapshotAvailableMemory((short) 6, memoryInfo, memoryInfoOffset);
         point2 = new ECPoint(curve);
+        point3 = new ECPoint(curve);
+        points = new ECPoint[]{point1, point2};
+        points3 = new ECPoint[]{point1, point2, point1};
+        // Comb table for G multiplication is tested on secp256k1 only
+        short teeth = OperationSupport.getInstance().EC_G_TABLE_TEETH;
+        OperationSupport.getInstance().EC_G_TABLE_TEETH = 4;
+        try {
+            curveK1 = new ECCurve(SecP256k1.p, SecP256k1.a, SecP256k1.b, SecP256k1.G, SecP256k1.r, SecP256k1.k, rm);
+        } finally {
+            OperationSupport.getInstance().EC_G_TABLE_TEETH = teeth;
+        }
+        curveK1.setEndomorphism(SecP256k1.beta, SecP256k1.lambda, SecP256k1.glvG1, SecP256k1.glvG2,
+                SecP256k1.glvMinusB1, SecP256k1.glvMinusB2);
+        curveK1.setHashToCurve(SecP256k1.sswuZ, SecP256k1.isoA, SecP256k1.isoB, SecP256k1.isoMap);
+        pointK1 = new ECPoint(curveK1);
+        try {
+            // ecMultX = KeyAgreement.getInstance(KeyAgreement.ALG_EC_SVDP_DH_PLAIN, false);
+            ecMultX = KeyAgreement.getInstance((byte) 3, false);
+        } catch (CryptoException e) {
+            ecMultX = null; // X-only multiplication is not tested
+        }
 
         // Testing BigNat objects used in tests
         memoryInfoOffset = snapshotAvailableMemory((short) 7, memoryInfo, memoryInfoOffset);
@@ -126,6 +184,13 @@ public class UnitTests extends Applet {
         memoryInfoOffset = snapshotAvailableMemory((short) 8, memoryInfo, memoryInfoOffset);
         bn2 = new BigNat(rm.MAX_BIGNAT_SIZE, memoryType, rm);
         bn3 = new BigNat(rm.MAX_BIGNAT_SIZE, memoryType, rm);
+        // Created at full length, so that mu fits the context of any modulus set later
+        bnBarrettMod = new BigNat(rm.MAX_BIGNAT_SIZE, memoryType, rm);
+        bnBarrettMod.setValue((byte) 1);
+        barrett = new BarrettContext(bnBarrettMod, rm);
+        bnBarrettMod.setBarrettContext(barrett);
+        scalars = new BigNat[]{bn1, bn2};
+        scalars3 = new BigNat[]{bn1, bn2, bn3};
 
         short intLen = 4;
         int1 = new Integer(intLen, rm);
@@ -188,6 +253,16 @@ public class UnitTests extends Applet {
                     Util.arrayCopyNonAtomic(rm.locker.profileLockedObjects, (short) 0, apduBuffer, (short) 0, (short) rm.locker.profileLockedObjects.length);
                     apdu.setOutgoingAndSend((short) 0, (short) rm.locker.profileLockedObjects.length);
                     break;
+                case INS_GET_EXP_CACHE_STATS:
+                    // Number of slots, hits and misses, all zero without the cache
+                    Util.arrayFillNonAtomic(apduBuffer, (short) 0, (short) 6, (byte) 0);
+                    if (rm.expCacheStats != null) {
+                        Util.setShort(apduBuffer, (short) 0, OperationSupport.getInstance().RSA_KEY_CACHE_SIZE);
+                        Util.setShort(apduBuffer, (short) 2, rm.expCacheStats[0]);
+                        Util.setShort(apduBuffer, (short) 4, rm.expCacheStats[1]);
+                    }
+                    apdu.setOutgoingAndSend((short) 0, (short) 6);
+                    break;
 
                 case INS_EC_GEN:
                     testEcGen(apdu);
@@ -219,6 +294,39 @@ public class UnitTests extends Applet {
                 case INS_EC_ENCODE:
                     testEcEncode(apdu);
                     break;
+                case INS_EC_ADD_CHAIN:
+                    testEcAddChain(apdu);
+                    break;
+                case INS_EC_MULTI_MUL:
+                    testEcMultiMul(apdu);
+                    break;
+                case INS_EC_MULTI_MUL_3:
+                    testEcMultiMul3(apdu, dataLen);
+                    break;
+                case INS_EC_MUL_SW:
+                    testEcMulSw(apdu);
+                    break;
+                case INS_EC_MUL_GLV:
+                    testEcMulGlv(apdu);
+                    break;
+                case INS_EC_MUL_PUBLIC:
+                    testEcMulPublic(apdu);
+                    break;
+                case INS_EC_NORMALIZE_ALL:
+                    testEcNormalizeAll(apdu);
+                    break;
+                case INS_EC_MUL_X:
+                    testEcMulX(apdu);
+                    break;
+                case INS_EC_AS_PUBLIC_KEY:
+                    testEcAsPublicKey(apdu);
+                    break;
+                case INS_EC_MUL_COMB:
+                    testEcMulComb(apdu, dataLen);
+                    break;
+                case INS_EC_HASH_TO_CURVE:
+                    testEcHashToCurve(apdu, dataLen);
+                    break;
 
                 case INS_BN_STR:
                     testBnStr(apdu, dataLen);
@@ -241,16 +349,40 @@ public class UnitTests extends Applet {
                 case INS_BN_MUL_SCHOOL:
                     testBnMulSchool(apdu, dataLen);
                     break;
+                case INS_BN_MUL_KARATSUBA:
+                    testBnMulKaratsuba(apdu, dataLen);
+                    break;
                 case INS_BN_SQ:
                     testBnSq(apdu, dataLen);
                     break;
                 case INS_BN_MOD:
                     testBnMod(apdu, dataLen);
                     break;
+                case INS_BN_MOD_BARRETT:
+                    testBnModBarrett(apdu, dataLen);
+                    break;
+                case INS_BN_MUL_MOD_SPECIAL:
+                    testBnMulModSpecial(apdu, dataLen);
+                    break;
+                case INS_BN_SQ_MOD_SPECIAL:
+                    testBnSqModSpecial(apdu, dataLen);
+                    break;
+                case INS_BN_MUL_MOD_RSA_SQ:
+                    testBnMulModRsaSq(apdu, dataLen);
+                    break;
+                case INS_BN_DIV:
+                    testBnDiv(apdu, dataLen);
+                    break;
                 case INS_BN_SET_VALUE:
                     testBnSetValue(apdu, dataLen);
                     break;
+                case INS_BN_EQUALS:
+                    testBnEquals(apdu, dataLen);
+                    break;
 
+                case INS_BN_MUTATE_COMPARE:
+                    testBnMutateCompare(apdu, dataLen);
+                    break;
                 case INS_BN_ADD_MOD:
                     testBnAddMod(apdu, dataLen);
                     break;
@@ -263,15 +395,30 @@ public class UnitTests extends Applet {
                 case INS_BN_EXP_MOD:
                     testBnExpMod(apdu, dataLen);
                     break;
+                case INS_BN_EXP_MOD_SW:
+                    testBnExpModSw(apdu, dataLen);
+                    break;
                 case INS_BN_SQ_MOD:
                     testBnSqMod(apdu, dataLen);
                     break;
                 case INS_BN_INV_MOD:
                     testBnInvMod(apdu, dataLen);
                     break;
+                case INS_BN_INV_MOD_BINARY:
+                    testBnInvModBinary(apdu, dataLen);
+                    break;
                 case INS_BN_SQRT_MOD:
                     testBnModSqrt(apdu, dataLen);
                     break;
+                case INS_BN_MUL_MOD_CURVE:
+                    testBnMulModCurve(apdu, dataLen);
+                    break;
+                case INS_BN_INV_MOD_BATCH:
+                    testBnInvModBatch(apdu, dataLen);
+                    break;
+                case INS_BN_LAZY_MOD:
+                    testBnLazyMod(apdu, dataLen);
+                    break;
 
                 case INS_INT_STR:
                     testIntStr(apdu, dataLen);
@@ -344,6 +491,9 @@ public class UnitTests extends Applet {
         if (curve != null) {
             curve.updateAfterReset();
         }
+        if (curveK1 != null) {
+            curveK1.updateAfterReset();
+        }
         if (rm != null) {
             rm.refreshAfterReset();
             rm.unlockAll();
@@ -371,6 +521,19 @@ public class UnitTests extends Applet {
         apdu.setOutgoingAndSend((short) 0, len);
     }
 
+    void testEcAddChain(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+
+        point1.setW(apduBuffer, ISO7816.OFFSET_CDATA, curve.POINT_SIZE);
+        point2.setW(apduBuffer, (short) (ISO7816.OFFSET_CDATA + curve.POINT_SIZE), curve.POINT_SIZE);
+        point1.add(point2);
+        point1.add(point2);
+        point1.makeDouble();
+
+        short len = point1.getW(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
     void testEcMul(APDU apdu) {
         byte[] apduBuffer = apdu.getBuffer();
         short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
@@ -383,6 +546,137 @@ public class UnitTests extends Applet {
         apdu.setOutgoingAndSend((short) 0, len);
     }
 
+    void testEcMulSw(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+        OperationSupport os = OperationSupport.getInstance();
+        // P2 selects secp256k1, whose endomorphism splits the scalar
+        ECPoint point = apduBuffer[ISO7816.OFFSET_P2] == 0 ? point1 : pointK1;
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        point.setW(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), point.getCurve().POINT_SIZE);
+        boolean swMult = os.EC_SW_MULT;
+        os.EC_SW_MULT = true;
+        try {
+            point.multiplication(bn1);
+        } finally {
+            os.EC_SW_MULT = swMult;
+        }
+
+        short len = point.getW(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testEcMulGlv(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        pointK1.setW(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), curveK1.POINT_SIZE);
+        pointK1.publicMultiplication(bn1);
+
+        short len = pointK1.getW(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testEcMulPublic(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        point1.setW(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), curve.POINT_SIZE);
+        point1.publicMultiplication(bn1);
+
+        short len = point1.getW(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testEcMulX(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+        OperationSupport os = OperationSupport.getInstance();
+        if (ecMultX == null) {
+            ISOException.throwIt(ReturnCodes.SW_OPERATION_NOT_SUPPORTED);
+        }
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        point1.setW(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), curve.POINT_SIZE);
+        KeyAgreement ecMultKA = rm.ecMultKA;
+        boolean swMult = os.EC_SW_MULT;
+        boolean ecdsa = os.EC_HW_X_ECDSA;
+        rm.ecMultKA = ecMultX;
+        os.EC_SW_MULT = false;
+        // P2 selects the second key agreement instead of the ECDSA check to recover Y
+        os.EC_HW_X_ECDSA = apduBuffer[ISO7816.OFFSET_P2] == 0;
+        try {
+            point1.multiplication(bn1);
+        } finally {
+            rm.ecMultKA = ecMultKA;
+            os.EC_SW_MULT = swMult;
+            os.EC_HW_X_ECDSA = ecdsa;
+        }
+
+        // The scalar is returned after the point to check that it was not modified
+        short len = point1.getW(apduBuffer, (short) 0);
+        len += bn1.copyToByteArray(apduBuffer, len);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testEcAsPublicKey(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+
+        point1.setW(apduBuffer, ISO7816.OFFSET_CDATA, curve.POINT_SIZE);
+        point1.getY(apduBuffer, (short) 0); // fills the affine cache
+        point1.asPublicKey().setW(apduBuffer, (short) (ISO7816.OFFSET_CDATA + curve.POINT_SIZE), curve.POINT_SIZE);
+
+        short len = point1.getW(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testEcMulComb(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, dataLen);
+        pointK1.setW(curveK1.G, (short) 0, curveK1.POINT_SIZE);
+        pointK1.multiplication(bn1);
+
+        short len = pointK1.getW(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testEcNormalizeAll(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+
+        OperationSupport os = OperationSupport.getInstance();
+        boolean lazy = os.EC_SW_LAZY;
+        // Lazy results are left in Jacobian coordinates for normalizeAll
+        os.EC_SW_LAZY = true;
+        try {
+            point1.setW(apduBuffer, ISO7816.OFFSET_CDATA, curve.POINT_SIZE);
+            point1.swDouble();
+            point2.setW(apduBuffer, (short) (ISO7816.OFFSET_CDATA + curve.POINT_SIZE), curve.POINT_SIZE);
+            point2.swDouble();
+            ECPoint.normalizeAll(points);
+        } finally {
+            os.EC_SW_LAZY = lazy;
+        }
+
+        short len = point1.getW(apduBuffer, (short) 0);
+        len += point2.getW(apduBuffer, len);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testEcHashToCurve(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+        ECPoint point = apduBuffer[ISO7816.OFFSET_P2] == 0 ? point1 : pointK1;
+
+        point.hashToCurve(apduBuffer, ISO7816.OFFSET_CDATA, p1, apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), (short) (dataLen - p1));
+
+        short len = point.getW(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
     void testEcMulAdd(APDU apdu) {
         byte[] apduBuffer = apdu.getBuffer();
         short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
@@ -396,6 +690,39 @@ public class UnitTests extends Applet {
         apdu.setOutgoingAndSend((short) 0, len);
     }
 
+    void testEcMultiMul(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+        short p2 = (short) (apduBuffer[ISO7816.OFFSET_P2] & 0x00FF);
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), p2);
+        point1.setW(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1 + p2), curve.POINT_SIZE);
+        point2.setW(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1 + p2 + curve.POINT_SIZE), curve.POINT_SIZE);
+        point3.multiScalarMult(scalars, points);
+
+        short len = point3.getW(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testEcMultiMul3(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+        short p2 = (short) (apduBuffer[ISO7816.OFFSET_P2] & 0x00FF);
+        short p3 = (short) (dataLen - p1 - p2 - 2 * curve.POINT_SIZE);
+
+        // Three terms, the last one of the first point, take the interleaving without windows
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), p2);
+        bn3.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1 + p2), p3);
+        point1.setW(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1 + p2 + p3), curve.POINT_SIZE);
+        point2.setW(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1 + p2 + p3 + curve.POINT_SIZE), curve.POINT_SIZE);
+        point3.multiScalarMult(scalars3, points3);
+
+        short len = point3.getW(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
     void testEcNeg(APDU apdu) {
         byte[] apduBuffer = apdu.getBuffer();
         short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
@@ -427,7 +754,9 @@ public class UnitTests extends Applet {
         byte[] apduBuffer = apdu.getBuffer();
         short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
 
-        point1.fromX(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        if (!point1.fromX(apduBuffer, ISO7816.OFFSET_CDATA, p1)) {
+            ISOException.throwIt(ReturnCodes.SW_ECPOINT_INVALID);
+        }
         short len = point1.getW(apduBuffer, (short) 0);
         apdu.setOutgoingAndSend((short) 0, len);
     }
@@ -537,9 +866,33 @@ public class UnitTests extends Applet {
         bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), (short) (dataLen - p1));
         boolean previous = OperationSupport.getInstance().RSA_SQ;
         OperationSupport.getInstance().RSA_SQ = false;
-        bn3.clone(bn1);
-        bn3.mult(bn2);
-        OperationSupport.getInstance().RSA_SQ = previous;
+        try {
+            bn3.clone(bn1);
+            bn3.mult(bn2);
+        } finally {
+            OperationSupport.getInstance().RSA_SQ = previous;
+        }
+        short len = bn3.copyToByteArray(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testBnMulKaratsuba(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+        short p2 = (short) (apduBuffer[ISO7816.OFFSET_P2] & 0x00FF);
+        OperationSupport os = OperationSupport.getInstance();
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), (short) (dataLen - p1));
+        // The default threshold exceeds half of MAX_BIGNAT_SIZE, so P2 lowers it for the operands to fit
+        short threshold = os.KARATSUBA_THRESHOLD;
+        os.KARATSUBA_THRESHOLD = p2;
+        try {
+            bn3.clone(bn1);
+            bn3.mult(bn2);
+        } finally {
+            os.KARATSUBA_THRESHOLD = threshold;
+        }
         short len = bn3.copyToByteArray(apduBuffer, (short) 0);
         apdu.setOutgoingAndSend((short) 0, len);
     }
@@ -555,6 +908,33 @@ public class UnitTests extends Applet {
         apdu.setOutgoingAndSend((short) 0, len);
     }
 
+    void testBnDiv(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+        short divisorLen = (short) (dataLen - p1);
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), divisorLen);
+        bn1.remainderDivide(bn2, bn3);
+        // Quotient padded to the length of the dividend, followed by remainder padded to the length of the divisor
+        bn3.prependZeros(p1, apduBuffer, (short) 0);
+        bn1.shrink();
+        bn1.prependZeros(divisorLen, apduBuffer, p1);
+        apdu.setOutgoingAndSend((short) 0, dataLen);
+    }
+
+    void testBnModBarrett(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bnBarrettMod.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), (short) (dataLen - p1));
+        barrett.refresh();
+        bn1.mod(bnBarrettMod);
+        short len = bn1.copyToByteArray(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
     void testBnSetValue(APDU apdu, short dataLen) {
         byte[] apduBuffer = apdu.getBuffer();
         short len = 0;
@@ -573,6 +953,54 @@ public class UnitTests extends Applet {
         apdu.setOutgoingAndSend((short) 0, len);
     }
 
+    void testBnEquals(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), (short) (dataLen - p1));
+        apduBuffer[0] = bn1.equals(bn2) ? (byte) 1 : (byte) 0;
+        apduBuffer[1] = bn2.equals(bn1) ? (byte) 1 : (byte) 0;
+        apduBuffer[2] = bn1.equalsConstantTime(bn2) ? (byte) 1 : (byte) 0;
+        apduBuffer[3] = bn2.equalsConstantTime(bn1) ? (byte) 1 : (byte) 0;
+        apdu.setOutgoingAndSend((short) 0, (short) 4);
+    }
+
+    void testBnMutateCompare(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), (short) (dataLen - p1));
+        // Each in-place change is followed by comparisons, which must not see a stale leading digit
+        short len = compareBn(apduBuffer, (short) 0);
+        bn1.increment();
+        len = compareBn(apduBuffer, len);
+        bn1.decrement();
+        bn1.decrement();
+        len = compareBn(apduBuffer, len);
+        bn2.shiftLeft((short) 9);
+        len = compareBn(apduBuffer, len);
+        bn2.shiftRight((short) 9);
+        len = compareBn(apduBuffer, len);
+        bn1.resize((short) (bn1.length() + 2));
+        len = compareBn(apduBuffer, len);
+        bn1.shrink();
+        len = compareBn(apduBuffer, len);
+        bn1.clone(bn2);
+        len = compareBn(apduBuffer, len);
+        bn1.zero();
+        len = compareBn(apduBuffer, len);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    short compareBn(byte[] buffer, short offset) {
+        buffer[offset] = bn1.isLesser(bn2) ? (byte) 1 : (byte) 0;
+        buffer[(short) (offset + 1)] = bn2.isLesser(bn1) ? (byte) 1 : (byte) 0;
+        buffer[(short) (offset + 2)] = bn1.equals(bn2) ? (byte) 1 : (byte) 0;
+        return Util.setShort(buffer, (short) (offset + 3), bn1.bitLength());
+    }
+
     void testBnAddMod(APDU apdu, short dataLen) {
         byte[] apduBuffer = apdu.getBuffer();
         short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
@@ -625,6 +1053,27 @@ public class UnitTests extends Applet {
         apdu.setOutgoingAndSend((short) 0, len);
     }
 
+    void testBnExpModSw(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+        short p2 = (short) (apduBuffer[ISO7816.OFFSET_P2] & 0x00FF);
+        OperationSupport os = OperationSupport.getInstance();
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), p2);
+        bn3.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1 + p2), (short) (dataLen - p1 - p2));
+        // The modulus has no context, so software exponentiation multiplies by plain products and reductions
+        boolean previous = os.RSA_EXP;
+        os.RSA_EXP = false;
+        try {
+            bn1.modExp(bn2, bn3);
+        } finally {
+            os.RSA_EXP = previous;
+        }
+        short len = bn1.copyToByteArray(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
     void testBnSqMod(APDU apdu, short dataLen) {
         byte[] apduBuffer = apdu.getBuffer();
         short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
@@ -647,6 +1096,17 @@ public class UnitTests extends Applet {
         apdu.setOutgoingAndSend((short) 0, len);
     }
 
+    void testBnInvModBinary(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), (short) (dataLen - p1));
+        bn1.modInvVarTime(bn2);
+        short len = bn1.copyToByteArray(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
     void testIntStr(APDU apdu, short dataLen) {
         byte[] apduBuffer = apdu.getBuffer();
 
@@ -666,6 +1126,117 @@ public class UnitTests extends Applet {
         apdu.setOutgoingAndSend((short) 0, len);
     }
 
+    void testBnMulModCurve(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), (short) (dataLen - p1));
+        bn1.modMult(bn2, curve.pBN);
+        short len = bn1.copyToByteArray(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testBnMulModSpecial(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+        // P2 selects the P-256 prime or the secp256k1 prime, software multiplication makes mod fold the product
+        BigNat mod = apduBuffer[ISO7816.OFFSET_P2] == 0 ? curve.pBN : curveK1.pBN;
+        OperationSupport os = OperationSupport.getInstance();
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), (short) (dataLen - p1));
+        boolean previous = os.RSA_SQ;
+        os.RSA_SQ = false;
+        try {
+            bn1.modMult(bn2, mod);
+        } finally {
+            os.RSA_SQ = previous;
+        }
+        short len = bn1.copyToByteArray(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testBnSqModSpecial(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        // P2 selects the P-256 prime or the secp256k1 prime, software squaring makes mod fold the square
+        BigNat mod = apduBuffer[ISO7816.OFFSET_P2] == 0 ? curve.pBN : curveK1.pBN;
+        OperationSupport os = OperationSupport.getInstance();
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, dataLen);
+        boolean previous = os.RSA_SQ;
+        os.RSA_SQ = false;
+        try {
+            bn1.modSq(mod);
+        } finally {
+            os.RSA_SQ = previous;
+        }
+        short len = bn1.copyToByteArray(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testBnMulModRsaSq(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+        short p2 = (short) (apduBuffer[ISO7816.OFFSET_P2] & 0x00FF);
+        short modLen = (short) (dataLen - p1 - p2);
+        // Without a modulus in the data, the curve prime is used, RSA_SQ makes modMult square by modSq and modExp
+        BigNat mod = modLen == 0 ? curve.pBN : bn3;
+        OperationSupport os = OperationSupport.getInstance();
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), p2);
+        if (modLen != 0) {
+            bn3.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1 + p2), modLen);
+        }
+        boolean previous = os.RSA_SQ;
+        os.RSA_SQ = true;
+        try {
+            bn1.modMult(bn2, mod);
+        } finally {
+            os.RSA_SQ = previous;
+        }
+        short len = bn1.copyToByteArray(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testBnInvModBatch(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), (short) (dataLen - p1));
+        // Non-zero P2 inverts in software, which must not need the table held by batchModInv
+        OperationSupport os = OperationSupport.getInstance();
+        boolean previous = os.RSA_EXP;
+        os.RSA_EXP = apduBuffer[ISO7816.OFFSET_P2] == 0 && previous;
+        try {
+            BigNat.batchModInv(scalars, curve.pBN);
+        } finally {
+            os.RSA_EXP = previous;
+        }
+        short len = bn1.copyToByteArray(apduBuffer, (short) 0);
+        len += bn2.copyToByteArray(apduBuffer, len);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
+    void testBnLazyMod(APDU apdu, short dataLen) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short p1 = (short) (apduBuffer[ISO7816.OFFSET_P1] & 0x00FF);
+        short p2 = (short) (apduBuffer[ISO7816.OFFSET_P2] & 0x00FF);
+
+        bn1.fromByteArray(apduBuffer, ISO7816.OFFSET_CDATA, p1);
+        bn2.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1), p2);
+        bn3.fromByteArray(apduBuffer, (short) (ISO7816.OFFSET_CDATA + p1 + p2), (short) (dataLen - p1 - p2));
+        bn1.modAddLazy(bn1, curve.pBN);
+        bn1.modAddLazy(bn2, curve.pBN);
+        bn1.modSubLazy(bn3, curve.pBN);
+        bn1.modSubLazy(bn3, curve.pBN);
+        bn1.modReduceLazy(curve.pBN);
+        short len = bn1.copyToByteArray(apduBuffer, (short) 0);
+        apdu.setOutgoingAndSend((short) 0, len);
+    }
+
 
     void testIntAdd(APDU apdu, short ignoredDataLen) {
         byte[] apduBuffer = apdu.getBuffer();
@@ -9,6 +9,7 @@ import javax.smartcardio.CommandAPDU;
 import javax.smartcardio.ResponseAPDU;
 
 import opencrypto.jcmathlib.*;
+import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.interfaces.ECPublicKey;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.jce.spec.ECParameterSpec;
@@ -21,6 +22,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.Integer;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.Security;
@@ -97,6 +99,68 @@ public class JCMathLibTest extends BaseTest {
             statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
         }
 
+        @Test
+        public void eccAddChain() throws Exception {
+            perfMap.put("eccAddChain/INS_EC_ADD_CHAIN", new Long(-1));
+            ECPoint point1 = randECPoint();
+            ECPoint point2 = randECPoint();
+            ECPoint result = point1.add(point2).add(point2).twice();
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_ADD_CHAIN, 0, 0, Util.concat(point1.getEncoded(false), point2.getEncoded(false)));
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("eccAddChain/INS_EC_ADD_CHAIN", statefulCard.getLastTransmitTime());
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertArrayEquals(result.getEncoded(false), resp.getData());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void eccMultiScalarMult() throws Exception {
+            perfMap.put("eccMultiScalarMult/INS_EC_MULTI_MUL", new Long(-1));
+            ECPoint point1 = randECPoint();
+            ECPoint point2 = randECPoint();
+            BigInteger ones = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+            // Windows of two bits at the lowest bit, runs of set bits, lone set bits and scalars of
+            // different lengths, also with both terms of the same point
+            BigInteger[][] pairs = {{randomBigNat(BIGNAT_BIT_LENGTH), randomBigNat(BIGNAT_BIT_LENGTH)},
+                    {ones, ones}, {BigInteger.valueOf(3), BigInteger.ONE}, {BigInteger.valueOf(2), randomBigNat(BIGNAT_BIT_LENGTH)},
+                    {new BigInteger("aaaaaaaa", 16), new BigInteger("55555555", 16)},
+                    {new BigInteger("6db6db6d", 16), randomBigNat(BIGNAT_BIT_LENGTH)}};
+            ECPoint[][] termPoints = {{point1, point2}, {point1, point1}};
+            for (ECPoint[] terms : termPoints) {
+                for (BigInteger[] pair : pairs) {
+                    ECPoint result = terms[0].multiply(pair[0]).add(terms[1].multiply(pair[1])).normalize();
+                    byte[] scalar1Bytes = Util.trimLeadingZeroes(pair[0].toByteArray());
+                    byte[] scalar2Bytes = Util.trimLeadingZeroes(pair[1].toByteArray());
+                    CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_MULTI_MUL, scalar1Bytes.length, scalar2Bytes.length, Util.concat(Util.concat(scalar1Bytes, scalar2Bytes), Util.concat(terms[0].getEncoded(false), terms[1].getEncoded(false))));
+                    ResponseAPDU resp = statefulCard.transmit(cmd);
+                    perfMap.put("eccMultiScalarMult/INS_EC_MULTI_MUL", statefulCard.getLastTransmitTime());
+                    Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                    Assertions.assertArrayEquals(result.getEncoded(false), resp.getData());
+                    statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+                }
+            }
+        }
+
+        @Test
+        public void eccMultiScalarMult3() throws Exception {
+            perfMap.put("eccMultiScalarMult3/INS_EC_MULTI_MUL_3", new Long(-1));
+            ECPoint point1 = randECPoint();
+            ECPoint point2 = randECPoint();
+            BigInteger scalar1 = randomBigNat(BIGNAT_BIT_LENGTH);
+            BigInteger scalar2 = randomBigNat(BIGNAT_BIT_LENGTH);
+            BigInteger scalar3 = randomBigNat(BIGNAT_BIT_LENGTH);
+            ECPoint result = point1.multiply(scalar1.add(scalar3)).add(point2.multiply(scalar2)).normalize();
+            byte[] scalar1Bytes = Util.trimLeadingZeroes(scalar1.toByteArray());
+            byte[] scalar2Bytes = Util.trimLeadingZeroes(scalar2.toByteArray());
+            byte[] scalar3Bytes = Util.trimLeadingZeroes(scalar3.toByteArray());
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_MULTI_MUL_3, scalar1Bytes.length, scalar2Bytes.length, Util.concat(Util.concat(scalar1Bytes, scalar2Bytes), Util.concat(scalar3Bytes, Util.concat(point1.getEncoded(false), point2.getEncoded(false)))));
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("eccMultiScalarMult3/INS_EC_MULTI_MUL_3", statefulCard.getLastTransmitTime());
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertArrayEquals(result.getEncoded(false), resp.getData());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
         @Test
         public void eccNegation() throws Exception {
             perfMap.put("eccNegation/INS_EC_NEG", new Long(-1));
@@ -141,6 +205,190 @@ public class JCMathLibTest extends BaseTest {
             statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
         }
 
+        @Test
+        public void eccMultiplyRandomSoftware() throws Exception {
+            perfMap.put("eccMultiplyRandomSoftware/INS_EC_MUL_SW", new Long(-1));
+            ECPoint point = randECPoint();
+            BigInteger scalar = randomBigNat(BIGNAT_BIT_LENGTH);
+            ECPoint result = point.multiply(scalar);
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_MUL_SW, scalar.toByteArray().length, 0, Util.concat(scalar.toByteArray(), point.getEncoded(false)));
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("eccMultiplyRandomSoftware/INS_EC_MUL_SW", statefulCard.getLastTransmitTime());
+
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertArrayEquals(result.getEncoded(false), resp.getData());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void eccMultiplySoftwareEdge() throws Exception {
+            perfMap.put("eccMultiplySoftwareEdge/INS_EC_MUL_SW", new Long(-1));
+            ECPoint point = randECPoint();
+            BigInteger r = new BigInteger(1, CURVE_R);
+            // Even scalars take the final correction, all-0xFF and r - 1 have the longest recodings
+            BigInteger[] scalars = {BigInteger.ONE, BigInteger.valueOf(3), BigInteger.valueOf(0x100), r.subtract(BigInteger.ONE),
+                    BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE), randomBigNat(BIGNAT_BIT_LENGTH).setBit(0),
+                    randomBigNat(BIGNAT_BIT_LENGTH).clearBit(0)};
+            for (BigInteger scalar : scalars) {
+                byte[] scalarBytes = Util.trimLeadingZeroes(scalar.toByteArray());
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_MUL_SW, scalarBytes.length, 0, Util.concat(scalarBytes, point.getEncoded(false)));
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("eccMultiplySoftwareEdge/INS_EC_MUL_SW", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                Assertions.assertArrayEquals(point.multiply(scalar).getEncoded(false), resp.getData());
+                statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+            }
+        }
+
+        @Test
+        public void eccMultiplySoftwareGlv() throws Exception {
+            perfMap.put("eccMultiplySoftwareGlv/INS_EC_MUL_SW", new Long(-1));
+            ECParameterSpec spec = ECNamedCurveTable.getParameterSpec("secp256k1");
+            ECPoint point = spec.getG().multiply(randomBigNat(BIGNAT_BIT_LENGTH)).normalize();
+            BigInteger r = spec.getN();
+            // Scalars above r are reduced first, parts of either sign and parity take the masked corrections
+            BigInteger[] scalars = {r.subtract(BigInteger.ONE), r.add(BigInteger.ONE), BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE),
+                    BigInteger.ONE.shiftLeft(200), randomBigNat(BIGNAT_BIT_LENGTH).setBit(0), randomBigNat(BIGNAT_BIT_LENGTH).clearBit(0)};
+            for (BigInteger scalar : scalars) {
+                byte[] scalarBytes = Util.trimLeadingZeroes(scalar.toByteArray());
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_MUL_SW, scalarBytes.length, 1, Util.concat(scalarBytes, point.getEncoded(false)));
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("eccMultiplySoftwareGlv/INS_EC_MUL_SW", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                Assertions.assertArrayEquals(point.multiply(scalar).getEncoded(false), resp.getData());
+                statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+            }
+        }
+
+        @Test
+        public void eccMultiplyRandomPublic() throws Exception {
+            perfMap.put("eccMultiplyRandomPublic/INS_EC_MUL_PUBLIC", new Long(-1));
+            ECPoint point = randECPoint();
+            BigInteger scalar = randomBigNat(BIGNAT_BIT_LENGTH);
+            ECPoint result = point.multiply(scalar);
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_MUL_PUBLIC, scalar.toByteArray().length, 0, Util.concat(scalar.toByteArray(), point.getEncoded(false)));
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("eccMultiplyRandomPublic/INS_EC_MUL_PUBLIC", statefulCard.getLastTransmitTime());
+
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertArrayEquals(result.getEncoded(false), resp.getData());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void eccMultiplyXOnly() throws Exception {
+            perfMap.put("eccMultiplyXOnly/INS_EC_MUL_X", new Long(-1));
+            ECPoint point = randECPoint();
+            BigInteger r = new BigInteger(1, CURVE_R);
+            // r - 1 and r + 1 give -P and P, all-0xFF exceeds r and must not wrap to zero when incremented
+            BigInteger[] scalars = {r.subtract(BigInteger.ONE), r.add(BigInteger.ONE),
+                    BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE), randomBigNat(BIGNAT_BIT_LENGTH)};
+            for (int p2 = 0; p2 < 2; ++p2) {
+                for (BigInteger scalar : scalars) {
+                    byte[] scalarBytes = Util.trimLeadingZeroes(scalar.toByteArray());
+                    CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_MUL_X, scalarBytes.length, p2, Util.concat(scalarBytes, point.getEncoded(false)));
+                    ResponseAPDU resp = statefulCard.transmit(cmd);
+                    perfMap.put("eccMultiplyXOnly/INS_EC_MUL_X", statefulCard.getLastTransmitTime());
+
+                    Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                    Assertions.assertArrayEquals(Util.concat(point.multiply(scalar).getEncoded(false), scalarBytes), resp.getData());
+                    statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+                }
+            }
+        }
+
+        @Test
+        public void eccMultiplyRandomGlv() throws Exception {
+            perfMap.put("eccMultiplyRandomGlv/INS_EC_MUL_GLV", new Long(-1));
+            ECParameterSpec spec = ECNamedCurveTable.getParameterSpec("secp256k1");
+            ECPoint point = spec.getG().multiply(randomBigNat(BIGNAT_BIT_LENGTH)).normalize();
+            BigInteger scalar = randomBigNat(BIGNAT_BIT_LENGTH).mod(spec.getN());
+            ECPoint result = point.multiply(scalar);
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_MUL_GLV, scalar.toByteArray().length, 0, Util.concat(scalar.toByteArray(), point.getEncoded(false)));
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("eccMultiplyRandomGlv/INS_EC_MUL_GLV", statefulCard.getLastTransmitTime());
+
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertArrayEquals(result.getEncoded(false), resp.getData());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void eccAsPublicKey() throws Exception {
+            perfMap.put("eccAsPublicKey/INS_EC_AS_PUBLIC_KEY", new Long(-1));
+            ECPoint point1 = randECPoint();
+            ECPoint point2 = randECPoint();
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_AS_PUBLIC_KEY, 0, 0, Util.concat(point1.getEncoded(false), point2.getEncoded(false)));
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("eccAsPublicKey/INS_EC_AS_PUBLIC_KEY", statefulCard.getLastTransmitTime());
+
+            // The value set through the returned key must not be hidden by the cached coordinates of point1
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertArrayEquals(point2.getEncoded(false), resp.getData());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void eccMultiplyGeneratorComb() throws Exception {
+            perfMap.put("eccMultiplyGeneratorComb/INS_EC_MUL_COMB", new Long(-1));
+            ECParameterSpec spec = ECNamedCurveTable.getParameterSpec("secp256k1");
+            // The first multiplication fills the table, the following ones reuse it
+            BigInteger[] scalars = {BigInteger.ONE, spec.getN().subtract(BigInteger.ONE),
+                    randomBigNat(BIGNAT_BIT_LENGTH).mod(spec.getN()), randomBigNat(BIGNAT_BIT_LENGTH).mod(spec.getN())};
+            for (BigInteger scalar : scalars) {
+                byte[] data = Util.trimLeadingZeroes(scalar.toByteArray());
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_MUL_COMB, 0, 0, data);
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("eccMultiplyGeneratorComb/INS_EC_MUL_COMB", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                Assertions.assertArrayEquals(spec.getG().multiply(scalar).getEncoded(false), resp.getData());
+                statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+            }
+        }
+
+        @Test
+        public void eccNormalizeAll() throws Exception {
+            perfMap.put("eccNormalizeAll/INS_EC_NORMALIZE_ALL", new Long(-1));
+            ECPoint point1 = randECPoint();
+            ECPoint point2 = randECPoint();
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_NORMALIZE_ALL, 0, 0, Util.concat(point1.getEncoded(false), point2.getEncoded(false)));
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("eccNormalizeAll/INS_EC_NORMALIZE_ALL", statefulCard.getLastTransmitTime());
+
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertArrayEquals(Util.concat(point1.twice().getEncoded(false), point2.twice().getEncoded(false)), resp.getData());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void eccHashToCurve() throws Exception {
+            perfMap.put("eccHashToCurve/INS_EC_HASH_TO_CURVE", new Long(-1));
+            // Test vectors of RFC 9380 for the empty message, J.1.1 and J.8.1
+            byte[] dst = "QUUX-V01-CS02-with-P256_XMD:SHA-256_SSWU_RO_".getBytes();
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_HASH_TO_CURVE, 0, 0, dst);
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("eccHashToCurve/INS_EC_HASH_TO_CURVE", statefulCard.getLastTransmitTime());
+
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertArrayEquals(Util.hexStringToByteArray("04"
+                    + "2c15230b26dbc6fc9a37051158c95b79656e17a1a920b11394ca91c44247d3e4"
+                    + "8a7a74985cc5c776cdfe4b1f19884970453912e9d31528c060be9ab5c43e8415"), resp.getData());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+
+            dst = "QUUX-V01-CS02-with-secp256k1_XMD:SHA-256_SSWU_RO_".getBytes();
+            cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_HASH_TO_CURVE, 0, 1, dst);
+            resp = statefulCard.transmit(cmd);
+
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertArrayEquals(Util.hexStringToByteArray("04"
+                    + "c1cae290e291aee617ebaef1be6d73861479c48b841eaba9b7b5852ddfeb1346"
+                    + "64fa678e07ae116126f08b022a94af6de15985c996c3a91b64c406a960e51067"), resp.getData());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
         @Test
         public void eccIsEqual() throws Exception {
             perfMap.put("eccIsEqual/INS_EC_COMPARE", new Long(-1));
@@ -197,6 +445,25 @@ public class JCMathLibTest extends BaseTest {
             cardMngr.transmit(new CommandAPDU(APDU_CLEANUP));
         }
 
+        @Test
+        public void eccFromXInvalid() throws Exception {
+            perfMap.put("eccFromXInvalid/INS_EC_FROM_X", new Long(-1));
+            ECCurve curve = CURVE_SPEC.getCurve();
+            BigInteger p = curve.getField().getCharacteristic();
+            BigInteger x, ySq;
+            do {
+                x = randomBigNat(BIGNAT_BIT_LENGTH).mod(p);
+                ySq = x.pow(3).add(curve.getA().toBigInteger().multiply(x)).add(curve.getB().toBigInteger()).mod(p);
+            } while (ySq.signum() == 0 || ySq.modPow(p.shiftRight(1), p).equals(BigInteger.ONE));
+            byte[] xCoord = Util.trimLeadingZeroes(x.toByteArray());
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_EC_FROM_X, xCoord.length, 0, xCoord);
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("eccFromXInvalid/INS_EC_FROM_X", statefulCard.getLastTransmitTime());
+
+            Assertions.assertEquals(ReturnCodes.SW_ECPOINT_INVALID & 0xffff, resp.getSW());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
         @Test
         public void eccIsYEven() throws Exception {
             perfMap.put("eccIsYEven/INS_EC_IS_Y_EVEN", new Long(-1));
@@ -324,6 +591,42 @@ public class JCMathLibTest extends BaseTest {
             statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
         }
 
+        @Test
+        public void bigNatAddSubtractCarry() throws Exception {
+            perfMap.put("bigNatAddSubtractCarry/INS_BN_ADD", new Long(-1));
+            perfMap.put("bigNatAddSubtractCarry/INS_BN_SUB", new Long(-1));
+            // Digits are processed in pairs, so odd lengths leave a single digit and all-0xFF operands carry or borrow
+            // through every pair
+            for (int len : new int[]{1, 2, 3, 5, 8, 17, 31, 32}) {
+                BigInteger ones = BigInteger.ONE.shiftLeft(8 * len).subtract(BigInteger.ONE);
+                BigInteger random = randomBigNat(8 * len);
+                BigInteger[][] sums = {{ones, BigInteger.ONE}, {ones, ones}, {ones, ones.shiftRight(8 * (len / 2))}, {ones, random}};
+                for (BigInteger[] pair : sums) {
+                    byte[] num1 = Util.trimLeadingZeroes(pair[0].toByteArray());
+                    byte[] num2 = Util.trimLeadingZeroes(pair[1].toByteArray());
+                    CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_ADD, num1.length, 0, Util.concat(num1, num2));
+                    ResponseAPDU resp = statefulCard.transmit(cmd);
+                    perfMap.put("bigNatAddSubtractCarry/INS_BN_ADD", statefulCard.getLastTransmitTime());
+
+                    Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                    Assertions.assertEquals(pair[0].add(pair[1]), new BigInteger(1, resp.getData()));
+                }
+                BigInteger power = ones.add(BigInteger.ONE);
+                BigInteger[][] differences = {{power, BigInteger.ONE}, {ones, ones}, {power, ones.shiftRight(8 * (len / 2))}, {power, random}};
+                for (BigInteger[] pair : differences) {
+                    byte[] num1 = Util.trimLeadingZeroes(pair[0].toByteArray());
+                    byte[] num2 = Util.trimLeadingZeroes(pair[1].toByteArray());
+                    CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_SUB, num1.length, 0, Util.concat(num1, num2));
+                    ResponseAPDU resp = statefulCard.transmit(cmd);
+                    perfMap.put("bigNatAddSubtractCarry/INS_BN_SUB", statefulCard.getLastTransmitTime());
+
+                    Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                    Assertions.assertEquals(pair[0].subtract(pair[1]), new BigInteger(1, resp.getData()));
+                }
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
         @Test
         public void bigNatMultiplication() throws Exception {
             perfMap.put("bigNatMultiplication/INS_BN_MUL", new Long(-1));
@@ -353,6 +656,25 @@ public class JCMathLibTest extends BaseTest {
             statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
         }
 
+        @Test
+        public void bigNatSqOddLength() throws Exception {
+            perfMap.put("bigNatSqOddLength/INS_BN_SQ", new Long(-1));
+            // Odd and even lengths, all-0xFF values carry through the doubled cross products and the diagonal
+            for (int len : new int[]{1, 2, 3, 7, 16, 31, 32}) {
+                BigInteger[] values = {BigInteger.ONE.shiftLeft(8 * len).subtract(BigInteger.ONE), BigInteger.ONE.shiftLeft(8 * len - 1),
+                        randomBigNat(8 * len).setBit(8 * len - 1)};
+                for (BigInteger num : values) {
+                    CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_SQ, 0, 0, Util.trimLeadingZeroes(num.toByteArray()));
+                    ResponseAPDU resp = statefulCard.transmit(cmd);
+                    perfMap.put("bigNatSqOddLength/INS_BN_SQ", statefulCard.getLastTransmitTime());
+
+                    Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                    Assertions.assertEquals(num.multiply(num), new BigInteger(1, resp.getData()));
+                }
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
         @Test
         public void bigNatShiftRight() throws Exception {
             perfMap.put("bigNatShiftRight(8b)/INS_BN_SHIFT_RIGHT", new Long(-1));
@@ -385,6 +707,61 @@ public class JCMathLibTest extends BaseTest {
             statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
         }
 
+        @Test
+        public void bigNatShiftOddLength() throws Exception {
+            perfMap.put("bigNatShiftOddLength/INS_BN_SHIFT_RIGHT", new Long(-1));
+            perfMap.put("bigNatShiftOddLength/INS_BN_SHIFT_LEFT", new Long(-1));
+            // Odd lengths leave a single digit after the pairs, all-0xFF moves set bits across every pair boundary
+            for (int len : new int[]{1, 3, 5, 17, 31}) {
+                BigInteger ones = BigInteger.ONE.shiftLeft(8 * len).subtract(BigInteger.ONE);
+                BigInteger[] values = {ones, ones.clearBit(0), BigInteger.ONE.shiftLeft(8 * len - 1), randomBigNat(8 * len)};
+                for (BigInteger num1 : values) {
+                    for (int bits = 1; bits < 8; ++bits) {
+                        byte[] data = Util.trimLeadingZeroes(num1.toByteArray());
+                        CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_SHIFT_RIGHT, bits, 0, data);
+                        ResponseAPDU resp = statefulCard.transmit(cmd);
+                        perfMap.put("bigNatShiftOddLength/INS_BN_SHIFT_RIGHT", statefulCard.getLastTransmitTime());
+
+                        Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                        Assertions.assertEquals(num1.shiftRight(bits), new BigInteger(1, resp.getData()));
+
+                        // A leading zero digit leaves room for the bits shifted out of the top
+                        cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_SHIFT_LEFT, bits, 0, Util.concat(new byte[1], data));
+                        resp = statefulCard.transmit(cmd);
+                        perfMap.put("bigNatShiftOddLength/INS_BN_SHIFT_LEFT", statefulCard.getLastTransmitTime());
+
+                        Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                        Assertions.assertEquals(num1.shiftLeft(bits), new BigInteger(1, resp.getData()));
+                    }
+                }
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void bigNatShiftMultiByte() throws Exception {
+            perfMap.put("bigNatShiftMultiByte/INS_BN_SHIFT_RIGHT", (long) -1);
+            perfMap.put("bigNatShiftMultiByte/INS_BN_SHIFT_LEFT", (long) -1);
+            int[] shifts = {8, 13, 64, 129, 200};
+            for (int bits : shifts) {
+                BigInteger num1 = randomBigNat(BIGNAT_BIT_LENGTH);
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_SHIFT_RIGHT, bits, 0, num1.toByteArray());
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("bigNatShiftMultiByte/INS_BN_SHIFT_RIGHT", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                Assertions.assertEquals(num1.shiftRight(bits), new BigInteger(1, resp.getData()));
+
+                cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_SHIFT_LEFT, bits, 0, num1.toByteArray());
+                resp = statefulCard.transmit(cmd);
+                perfMap.put("bigNatShiftMultiByte/INS_BN_SHIFT_LEFT", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                Assertions.assertEquals(num1.shiftLeft(bits), new BigInteger(1, resp.getData()));
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
         @Test
         public void bigNatMultiplicationSlow() throws Exception {
             perfMap.put("bigNatMultiplicationSlow/INS_BN_MUL_SCHOOL", new Long(-1));
@@ -400,6 +777,101 @@ public class JCMathLibTest extends BaseTest {
             statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
         }
 
+        @Test
+        public void bigNatMultiplicationKaratsuba() throws Exception {
+            perfMap.put("bigNatMultiplicationKaratsuba/INS_BN_MUL_KARATSUBA", new Long(-1));
+            byte[] ones = new byte[32];
+            Arrays.fill(ones, (byte) 0xff);
+            BigInteger allOnes = new BigInteger(1, ones);
+            // Operand pairs with the threshold passed in P2: unequal lengths, odd lengths, carries out of the middle
+            // sums, and one operand below the threshold, which stays on the schoolbook path
+            Object[][] cases = {
+                    {randomBigNat(8 * 20).setBit(8 * 20 - 1), randomBigNat(8 * 29).setBit(8 * 29 - 1), 16},
+                    {randomBigNat(8 * 31).setBit(8 * 31 - 1), randomBigNat(8 * 17).setBit(8 * 17 - 1), 16},
+                    {randomBigNat(8 * 25).setBit(8 * 25 - 1), randomBigNat(8 * 25).setBit(8 * 25 - 1), 8},
+                    {allOnes, allOnes, 8},
+                    {allOnes, allOnes.shiftRight(8 * 11), 16},
+                    {randomBigNat(8 * 30).setBit(8 * 30 - 1), randomBigNat(8 * 12).setBit(8 * 12 - 1), 16},
+            };
+            for (Object[] c : cases) {
+                byte[] num1 = Util.trimLeadingZeroes(((BigInteger) c[0]).toByteArray());
+                byte[] num2 = Util.trimLeadingZeroes(((BigInteger) c[1]).toByteArray());
+                BigInteger result = new BigInteger(1, num1).multiply(new BigInteger(1, num2));
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_MUL_KARATSUBA, num1.length, (Integer) c[2], Util.concat(num1, num2));
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("bigNatMultiplicationKaratsuba/INS_BN_MUL_KARATSUBA", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                Assertions.assertEquals(result, new BigInteger(1, resp.getData()));
+                statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+            }
+        }
+
+        @Test
+        public void bigNatDivide() throws Exception {
+            perfMap.put("bigNatDivide/INS_BN_DIV", new Long(-1));
+            List<BigInteger[]> cases = new ArrayList<>();
+            // The first estimate of the quotient digit is one too large and the multiple of the divisor is added back
+            cases.add(new BigInteger[]{new BigInteger("800003", 16), new BigInteger("200001", 16)});
+            cases.add(new BigInteger[]{new BigInteger("7f800000", 16), new BigInteger("800001", 16)});
+            cases.add(new BigInteger[]{new BigInteger("7f80000000", 16), new BigInteger("80000001", 16)});
+            // 2n-byte dividends, with all-0xFF values and a divisor with a leading 0x01 digit for the largest shift
+            for (int len : new int[]{1, 2, 3, 16, 31, 32}) {
+                BigInteger ones = BigInteger.ONE.shiftLeft(8 * len).subtract(BigInteger.ONE);
+                BigInteger[] divisors = {randomBigNat(8 * len).setBit(8 * len - 1), ones, randomBigNat(8 * len).shiftRight(7).setBit(8 * len - 8)};
+                for (BigInteger divisor : divisors) {
+                    cases.add(new BigInteger[]{randomBigNat(16 * len).setBit(16 * len - 1), divisor});
+                    cases.add(new BigInteger[]{BigInteger.ONE.shiftLeft(16 * len).subtract(BigInteger.ONE), divisor});
+                    cases.add(new BigInteger[]{divisor.multiply(divisor).subtract(BigInteger.ONE), divisor});
+                }
+            }
+            for (BigInteger[] c : cases) {
+                byte[] num = Util.trimLeadingZeroes(c[0].toByteArray());
+                byte[] divisor = Util.trimLeadingZeroes(c[1].toByteArray());
+                BigInteger[] result = c[0].divideAndRemainder(c[1]);
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_DIV, num.length, 0, Util.concat(num, divisor));
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("bigNatDivide/INS_BN_DIV", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                byte[] data = resp.getData();
+                Assertions.assertEquals(result[0], new BigInteger(1, Arrays.copyOfRange(data, 0, num.length)));
+                Assertions.assertEquals(result[1], new BigInteger(1, Arrays.copyOfRange(data, num.length, data.length)));
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void bigNatModBarrett() throws Exception {
+            perfMap.put("bigNatModBarrett/INS_BN_MOD_BARRETT", new Long(-1));
+            for (int len : new int[]{1, 2, 3, 17, 32}) {
+                // Moduli with the top bit set, a power of two where mu gets the extra one, all-0xFF and a small
+                // leading digit
+                BigInteger[] moduli = {randomBigNat(8 * len).setBit(8 * len - 1), BigInteger.ONE.shiftLeft(8 * len - 1),
+                        BigInteger.ONE.shiftLeft(8 * len).subtract(BigInteger.ONE), randomBigNat(8 * len).shiftRight(7).setBit(8 * len - 8)};
+                for (BigInteger mod : moduli) {
+                    // Up to 2 len bytes Barrett is used, the last dividend is longer where it fits and falls back to division
+                    BigInteger[] dividends = {BigInteger.ONE.shiftLeft(16 * len).subtract(BigInteger.ONE), randomBigNat(16 * len),
+                            mod.subtract(BigInteger.ONE), mod, mod.multiply(randomBigNat(8 * len)).add(mod.subtract(BigInteger.ONE)),
+                            randomBigNat(Math.min(16 * len + 8, 8 * 64))};
+                    for (BigInteger num : dividends) {
+                        if (num.signum() == 0) {
+                            continue;
+                        }
+                        byte[] numBytes = Util.trimLeadingZeroes(num.toByteArray());
+                        byte[] modBytes = Util.trimLeadingZeroes(mod.toByteArray());
+                        CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_MOD_BARRETT, numBytes.length, 0, Util.concat(numBytes, modBytes));
+                        ResponseAPDU resp = statefulCard.transmit(cmd);
+                        perfMap.put("bigNatModBarrett/INS_BN_MOD_BARRETT", statefulCard.getLastTransmitTime());
+
+                        Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                        Assertions.assertEquals(num.mod(mod), new BigInteger(1, resp.getData()));
+                    }
+                }
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
         @Test
         public void bigNatMod() throws Exception {
             perfMap.put("bigNatMod/INS_BN_MOD", new Long(-1));
@@ -428,6 +900,73 @@ public class JCMathLibTest extends BaseTest {
             statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
         }
 
+        @Test
+        public void bigNatEquals() throws Exception {
+            perfMap.put("bigNatEquals/INS_BN_EQUALS", new Long(-1));
+            // Operands of different sizes, compared in both directions by equals and equalsConstantTime
+            byte[][][] cases = {
+                    {{0x00, 0x00}, {0x02}},
+                    {{0x00, 0x02}, {0x02}},
+                    {{0x00, 0x00, 0x00}, {0x00}},
+                    {{0x01, 0x02, 0x03}, {0x02, 0x03}},
+                    {{0x00, 0x02, 0x03}, {0x02, 0x03}},
+                    {{0x01, 0x02, 0x03}, {0x01, 0x02, 0x04}},
+                    {{0x01, 0x02, 0x03}, {0x01, 0x02, 0x03}},
+            };
+            for (byte[][] c : cases) {
+                boolean expected = new BigInteger(1, c[0]).equals(new BigInteger(1, c[1]));
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_EQUALS, c[0].length, 0, Util.concat(c[0], c[1]));
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("bigNatEquals/INS_BN_EQUALS", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                Assertions.assertEquals(expected ? 1 : 0, resp.getData()[0]);
+                Assertions.assertEquals(expected ? 1 : 0, resp.getData()[1]);
+                Assertions.assertEquals(expected ? 1 : 0, resp.getData()[2]);
+                Assertions.assertEquals(expected ? 1 : 0, resp.getData()[3]);
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void bigNatMutateCompare() throws Exception {
+            perfMap.put("bigNatMutateCompare/INS_BN_MUTATE_COMPARE", new Long(-1));
+            byte[] random = new byte[33];
+            ThreadLocalRandom.current().nextBytes(random);
+            random[0] = 0x00;
+            // Increments and decrements that move the leading digit, equal and unequal operands
+            byte[][][] cases = {
+                    {{0x00, (byte) 0xff, (byte) 0xff}, {(byte) 0xff, (byte) 0xff}},
+                    {{0x00, 0x01, 0x00}, {(byte) 0xff}},
+                    {{0x00, 0x01}, {0x02}},
+                    {random, Arrays.copyOfRange(random, 1, random.length)},
+            };
+            for (byte[][] c : cases) {
+                BigInteger a = new BigInteger(1, c[0]);
+                BigInteger b = new BigInteger(1, c[1]);
+                // Values of both operands after each step of the handler
+                BigInteger[][] steps = {
+                        {a, b}, {a.add(BigInteger.ONE), b}, {a.subtract(BigInteger.ONE), b}, {a.subtract(BigInteger.ONE), b.shiftLeft(9)},
+                        {a.subtract(BigInteger.ONE), b}, {a.subtract(BigInteger.ONE), b}, {a.subtract(BigInteger.ONE), b}, {b, b}, {BigInteger.ZERO, b},
+                };
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_MUTATE_COMPARE, c[0].length, 0, Util.concat(c[0], c[1]));
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("bigNatMutateCompare/INS_BN_MUTATE_COMPARE", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                byte[] data = resp.getData();
+                Assertions.assertEquals(5 * steps.length, data.length);
+                for (int i = 0; i < steps.length; i++) {
+                    int cmp = steps[i][0].compareTo(steps[i][1]);
+                    Assertions.assertEquals(cmp < 0 ? 1 : 0, data[5 * i]);
+                    Assertions.assertEquals(cmp > 0 ? 1 : 0, data[5 * i + 1]);
+                    Assertions.assertEquals(cmp == 0 ? 1 : 0, data[5 * i + 2]);
+                    Assertions.assertEquals(steps[i][0].bitLength(), ((data[5 * i + 3] & 0xff) << 8) | (data[5 * i + 4] & 0xff));
+                }
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
         @Test
         public void bigNatModSqrt() throws Exception {
             perfMap.put("bigNatModSqrt/INS_BN_SQRT_MOD", new Long(-1));
@@ -448,6 +987,22 @@ public class JCMathLibTest extends BaseTest {
             statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
         }
 
+        @Test
+        public void bigNatModSqrtP5Mod8() throws Exception {
+            perfMap.put("bigNatModSqrtP5Mod8/INS_BN_SQRT_MOD", new Long(-1));
+            BigInteger mod = new BigInteger(1, Wei25519.p);
+            BigInteger num = randomBigNat(BIGNAT_BIT_LENGTH).modPow(BigInteger.valueOf(2), mod);
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_SQRT_MOD, Util.trimLeadingZeroes(num.toByteArray()).length, 0, Util.concat(Util.trimLeadingZeroes(num.toByteArray()), Util.trimLeadingZeroes(mod.toByteArray())));
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("bigNatModSqrtP5Mod8/INS_BN_SQRT_MOD", statefulCard.getLastTransmitTime());
+
+            BigInteger receivedResult = new BigInteger(1, resp.getData());
+
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertEquals(receivedResult.modPow(BigInteger.valueOf(2), mod), num);
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
         @Test
         public void bigNatModAdd() throws Exception {
             perfMap.put("bigNatModAdd/INS_BN_ADD_MOD", new Long(-1));
@@ -497,6 +1052,92 @@ public class JCMathLibTest extends BaseTest {
             statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
         }
 
+        @Test
+        public void bigNatModMultCurve() throws Exception {
+            perfMap.put("bigNatModMultCurve/INS_BN_MUL_MOD_CURVE", new Long(-1));
+            BigInteger mod = new BigInteger(1, CURVE_P);
+            BigInteger num1 = randomBigNat(BIGNAT_BIT_LENGTH).mod(mod);
+            BigInteger num2 = randomBigNat(BIGNAT_BIT_LENGTH).mod(mod);
+            BigInteger result = (num1.multiply(num2)).mod(mod);
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_MUL_MOD_CURVE, Util.trimLeadingZeroes(num1.toByteArray()).length, 0, Util.concat(Util.trimLeadingZeroes(num1.toByteArray()), Util.trimLeadingZeroes(num2.toByteArray())));
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("bigNatModMultCurve/INS_BN_MUL_MOD_CURVE", statefulCard.getLastTransmitTime());
+
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertEquals(result, new BigInteger(1, resp.getData()));
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void bigNatModMultRsaSq() throws Exception {
+            perfMap.put("bigNatModMultRsaSq/INS_BN_MUL_MOD_RSA_SQ", new Long(-1));
+            // A modulus without contexts squares on the RSA engine, the curve prime by software modExp
+            BigInteger[] mods = {new BigInteger(1, CURVE_R), new BigInteger(1, CURVE_P)};
+            for (BigInteger mod : mods) {
+                byte[] num1 = Util.trimLeadingZeroes(randomBigNat(BIGNAT_BIT_LENGTH).mod(mod).toByteArray());
+                byte[] num2 = Util.trimLeadingZeroes(randomBigNat(BIGNAT_BIT_LENGTH).mod(mod).toByteArray());
+                byte[] modBytes = mod.equals(mods[0]) ? Util.trimLeadingZeroes(mod.toByteArray()) : new byte[0];
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_MUL_MOD_RSA_SQ, num1.length, num2.length, Util.concat(Util.concat(num1, num2), modBytes));
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("bigNatModMultRsaSq/INS_BN_MUL_MOD_RSA_SQ", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                Assertions.assertEquals(new BigInteger(1, num1).multiply(new BigInteger(1, num2)).mod(mod), new BigInteger(1, resp.getData()));
+                statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+            }
+        }
+
+        @Test
+        public void bigNatModMultSpecial() throws Exception {
+            perfMap.put("bigNatModMultSpecial/INS_BN_MUL_MOD_SPECIAL", new Long(-1));
+            BigInteger[] primes = {new BigInteger(1, SecP256r1.p), new BigInteger(1, SecP256k1.p)};
+            for (int curve = 0; curve < primes.length; ++curve) {
+                BigInteger p = primes[curve];
+                BigInteger pm1 = p.subtract(BigInteger.ONE);
+                BigInteger ones = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+                // Products up to (p - 1)^2, all-0xFF operands above p and unreduced operands below 2p, whose products
+                // reach 2p^2, folded for secp256k1 and longer than the 64 bytes folded for P-256
+                BigInteger[][] pairs = {{pm1, pm1}, {pm1, BigInteger.ONE}, {pm1, BigInteger.valueOf(2)}, {ones, ones},
+                        {p.add(pm1), pm1}, {p.add(pm1), BigInteger.valueOf(2)}, {p.add(pm1), p.add(pm1)},
+                        {randomBigNat(BIGNAT_BIT_LENGTH).mod(p), randomBigNat(BIGNAT_BIT_LENGTH).mod(p)}};
+                for (BigInteger[] pair : pairs) {
+                    byte[] num1 = Util.trimLeadingZeroes(pair[0].toByteArray());
+                    byte[] num2 = Util.trimLeadingZeroes(pair[1].toByteArray());
+                    CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_MUL_MOD_SPECIAL, num1.length, curve, Util.concat(num1, num2));
+                    ResponseAPDU resp = statefulCard.transmit(cmd);
+                    perfMap.put("bigNatModMultSpecial/INS_BN_MUL_MOD_SPECIAL", statefulCard.getLastTransmitTime());
+
+                    Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                    Assertions.assertEquals(pair[0].multiply(pair[1]).mod(p), new BigInteger(1, resp.getData()));
+                }
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void bigNatModSqSpecial() throws Exception {
+            perfMap.put("bigNatModSqSpecial/INS_BN_SQ_MOD_SPECIAL", new Long(-1));
+            BigInteger[] primes = {new BigInteger(1, SecP256r1.p), new BigInteger(1, SecP256k1.p)};
+            for (int curve = 0; curve < primes.length; ++curve) {
+                BigInteger p = primes[curve];
+                // p - 1 and unreduced values below 2p square to the largest inputs of the reduction, all-0xFF and
+                // top-bit-only values carry through the doubled cross products
+                BigInteger[] values = {p.subtract(BigInteger.ONE), p.shiftLeft(1).subtract(BigInteger.ONE), p.add(BigInteger.ONE),
+                        BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE), BigInteger.ONE.shiftLeft(255), BigInteger.ONE,
+                        randomBigNat(BIGNAT_BIT_LENGTH).mod(p)};
+                for (BigInteger num : values) {
+                    byte[] data = Util.trimLeadingZeroes(num.toByteArray());
+                    CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_SQ_MOD_SPECIAL, 0, curve, data);
+                    ResponseAPDU resp = statefulCard.transmit(cmd);
+                    perfMap.put("bigNatModSqSpecial/INS_BN_SQ_MOD_SPECIAL", statefulCard.getLastTransmitTime());
+
+                    Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                    Assertions.assertEquals(num.multiply(num).mod(p), new BigInteger(1, resp.getData()));
+                }
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
         @Test
         public void bigNatModExp() throws Exception {
             perfMap.put("bigNatModExp/INS_BN_EXP_MOD", new Long(-1));
@@ -516,6 +1157,89 @@ public class JCMathLibTest extends BaseTest {
             statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
         }
 
+        @Test
+        public void bigNatModExpSoftware() throws Exception {
+            perfMap.put("bigNatModExpSoftware/INS_BN_EXP_MOD_SW", new Long(-1));
+            // Odd and even moduli without contexts, up to the longest BigNat, and a base longer than the modulus
+            BigInteger[] mods = {new BigInteger(1, CURVE_R), randomBigNat(BIGNAT_BIT_LENGTH).setBit(BIGNAT_BIT_LENGTH - 1).clearBit(0),
+                    randomBigNat(2 * BIGNAT_BIT_LENGTH).setBit(2 * BIGNAT_BIT_LENGTH - 1).setBit(0), BigInteger.valueOf(1000003)};
+            for (BigInteger mod : mods) {
+                BigInteger base = randomBigNat(2 * BIGNAT_BIT_LENGTH);
+                BigInteger exp = randomBigNat(BIGNAT_BIT_LENGTH);
+                byte[] baseBytes = Util.trimLeadingZeroes(base.toByteArray());
+                byte[] expBytes = Util.trimLeadingZeroes(exp.toByteArray());
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_EXP_MOD_SW, baseBytes.length, expBytes.length, Util.concat(baseBytes, expBytes, Util.trimLeadingZeroes(mod.toByteArray())));
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("bigNatModExpSoftware/INS_BN_EXP_MOD_SW", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                Assertions.assertEquals(base.modPow(exp, mod), new BigInteger(1, resp.getData()));
+                statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+            }
+        }
+
+        @Test
+        public void bigNatModExpRepeated() throws Exception {
+            perfMap.put("bigNatModExpRepeated/INS_BN_EXP_MOD", new Long(-1));
+            // Repeated (mod, exp) pairs reuse the cached RSA key, one pair per slot more evicts it
+            BigInteger exp = randomBigNat(BIGNAT_BIT_LENGTH);
+            BigInteger mod = new BigInteger(1, CURVE_R);
+            short[] before = getExpCacheStats();
+            for (int i = 0; i < 3; ++i) {
+                modExpRepeated(exp, mod);
+            }
+            short[] after = getExpCacheStats();
+            if (before[0] > 1) {
+                Assertions.assertEquals(2, (short) (after[1] - before[1]));
+                Assertions.assertEquals(1, (short) (after[2] - before[2]));
+                for (int i = 0; i < before[0]; ++i) {
+                    modExpRepeated(exp.add(BigInteger.valueOf(i + 1)), mod);
+                }
+                modExpRepeated(exp, mod);
+                short[] evicted = getExpCacheStats();
+                Assertions.assertEquals(after[1], evicted[1]);
+                Assertions.assertEquals(before[0] + 1, (short) (evicted[2] - after[2]));
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        private void modExpRepeated(BigInteger exp, BigInteger mod) throws Exception {
+            BigInteger base = randomBigNat(BIGNAT_BIT_LENGTH);
+            BigInteger result = (base.modPow(exp, mod));
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_EXP_MOD, Util.trimLeadingZeroes(base.toByteArray()).length, Util.trimLeadingZeroes(exp.toByteArray()).length, Util.concat(Util.trimLeadingZeroes(base.toByteArray()), Util.trimLeadingZeroes(exp.toByteArray()), Util.trimLeadingZeroes(mod.toByteArray())));
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("bigNatModExpRepeated/INS_BN_EXP_MOD", statefulCard.getLastTransmitTime());
+
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertEquals(result, new BigInteger(1, resp.getData()));
+        }
+
+        private short[] getExpCacheStats() throws Exception {
+            ResponseAPDU resp = statefulCard.transmit(new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_GET_EXP_CACHE_STATS, 0, 0));
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            ByteBuffer data = ByteBuffer.wrap(resp.getData());
+            return new short[]{data.getShort(), data.getShort(), data.getShort()};
+        }
+
+        @Test
+        public void bigNatModExpShort() throws Exception {
+            perfMap.put("bigNatModExpShort/INS_BN_EXP_MOD", new Long(-1));
+            // Short exponents may be computed in software instead of the RSA engine
+            BigInteger[] exps = {BigInteger.valueOf(2), BigInteger.valueOf(3), BigInteger.valueOf(65537)};
+            for (BigInteger exp : exps) {
+                BigInteger base = randomBigNat(BIGNAT_BIT_LENGTH);
+                BigInteger mod = new BigInteger(1, CURVE_R);
+                BigInteger result = (base.modPow(exp, mod));
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_EXP_MOD, Util.trimLeadingZeroes(base.toByteArray()).length, Util.trimLeadingZeroes(exp.toByteArray()).length, Util.concat(Util.trimLeadingZeroes(base.toByteArray()), Util.trimLeadingZeroes(exp.toByteArray()), Util.trimLeadingZeroes(mod.toByteArray())));
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("bigNatModExpShort/INS_BN_EXP_MOD", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                Assertions.assertEquals(result, new BigInteger(1, resp.getData()));
+            }
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
         @Test
         public void bigNatModSq() throws Exception {
             perfMap.put("bigNatModSq/INS_BN_SQ_MOD", new Long(-1));
@@ -546,6 +1270,79 @@ public class JCMathLibTest extends BaseTest {
             Assertions.assertEquals(result, new BigInteger(1, resp.getData()));
             statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
         }
+
+        @Test
+        public void bigNatModInvBinary() throws Exception {
+            perfMap.put("bigNatModInvBinary/INS_BN_INV_MOD_BINARY", new Long(-1));
+            // Odd prime and composite moduli, the latter are only supported by modInvVarTime
+            BigInteger composite = BigInteger.probablePrime(128, ThreadLocalRandom.current()).multiply(BigInteger.probablePrime(127, ThreadLocalRandom.current()));
+            BigInteger[] mods = {new BigInteger(1, CURVE_P), new BigInteger(1, CURVE_R), composite};
+            for (BigInteger mod : mods) {
+                BigInteger[] bases = {BigInteger.ONE, mod.subtract(BigInteger.ONE), randomBigNat(BIGNAT_BIT_LENGTH).mod(mod)};
+                for (BigInteger base : bases) {
+                    if (!base.gcd(mod).equals(BigInteger.ONE)) {
+                        continue;
+                    }
+                    byte[] baseBytes = Util.trimLeadingZeroes(base.toByteArray());
+                    CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_INV_MOD_BINARY, baseBytes.length, 0, Util.concat(baseBytes, Util.trimLeadingZeroes(mod.toByteArray())));
+                    ResponseAPDU resp = statefulCard.transmit(cmd);
+                    perfMap.put("bigNatModInvBinary/INS_BN_INV_MOD_BINARY", statefulCard.getLastTransmitTime());
+
+                    Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                    Assertions.assertEquals(base.modInverse(mod), new BigInteger(1, resp.getData()));
+                    statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+                }
+            }
+        }
+
+        @Test
+        public void bigNatModInvBatch() throws Exception {
+            perfMap.put("bigNatModInvBatch/INS_BN_INV_MOD_BATCH", new Long(-1));
+            BigInteger mod = new BigInteger(1, CURVE_P);
+            BigInteger num1 = randomBigNat(BIGNAT_BIT_LENGTH).mod(mod);
+            BigInteger num2 = randomBigNat(BIGNAT_BIT_LENGTH).mod(mod);
+            BigInteger result1 = num1.modInverse(mod);
+            BigInteger result2 = num2.modInverse(mod);
+            // P2 = 1 inverts without the RSA engine
+            for (int p2 = 0; p2 < 2; p2++) {
+                CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_INV_MOD_BATCH, Util.trimLeadingZeroes(num1.toByteArray()).length, p2, Util.concat(Util.trimLeadingZeroes(num1.toByteArray()), Util.trimLeadingZeroes(num2.toByteArray())));
+                ResponseAPDU resp = statefulCard.transmit(cmd);
+                perfMap.put("bigNatModInvBatch/INS_BN_INV_MOD_BATCH", statefulCard.getLastTransmitTime());
+
+                Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+                byte[] data = resp.getData();
+                Assertions.assertEquals(result1, new BigInteger(1, Arrays.copyOfRange(data, 0, data.length / 2)));
+                Assertions.assertEquals(result2, new BigInteger(1, Arrays.copyOfRange(data, data.length / 2, data.length)));
+                statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+            }
+
+            // A zero value has no inverse, a value equal to the modulus neither
+            byte[] zero = {0};
+            byte[] modBytes = Util.trimLeadingZeroes(mod.toByteArray());
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_INV_MOD_BATCH, 1, 0, Util.concat(zero, Util.trimLeadingZeroes(num2.toByteArray())));
+            Assertions.assertEquals(ReturnCodes.SW_BIGNAT_INVALIDMOD & 0xffff, statefulCard.transmit(cmd).getSW());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+            cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_INV_MOD_BATCH, Util.trimLeadingZeroes(num1.toByteArray()).length, 0, Util.concat(Util.trimLeadingZeroes(num1.toByteArray()), modBytes));
+            Assertions.assertEquals(ReturnCodes.SW_BIGNAT_INVALIDMOD & 0xffff, statefulCard.transmit(cmd).getSW());
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
+
+        @Test
+        public void bigNatLazyMod() throws Exception {
+            perfMap.put("bigNatLazyMod/INS_BN_LAZY_MOD", new Long(-1));
+            BigInteger mod = new BigInteger(1, CURVE_P);
+            BigInteger num1 = randomBigNat(BIGNAT_BIT_LENGTH).mod(mod);
+            BigInteger num2 = randomBigNat(BIGNAT_BIT_LENGTH).mod(mod);
+            BigInteger num3 = randomBigNat(BIGNAT_BIT_LENGTH).mod(mod);
+            BigInteger result = num1.shiftLeft(1).add(num2).subtract(num3.shiftLeft(1)).mod(mod);
+            CommandAPDU cmd = new CommandAPDU(UnitTests.CLA_OC_UT, UnitTests.INS_BN_LAZY_MOD, Util.trimLeadingZeroes(num1.toByteArray()).length, Util.trimLeadingZeroes(num2.toByteArray()).length, Util.concat(Util.trimLeadingZeroes(num1.toByteArray()), Util.trimLeadingZeroes(num2.toByteArray()), Util.trimLeadingZeroes(num3.toByteArray())));
+            ResponseAPDU resp = statefulCard.transmit(cmd);
+            perfMap.put("bigNatLazyMod/INS_BN_LAZY_MOD", statefulCard.getLastTransmitTime());
+
+            Assertions.assertEquals(ISO7816.SW_NO_ERROR & 0xffff, resp.getSW());
+            Assertions.assertEquals(result, new BigInteger(1, resp.getData()));
+            statefulCard.transmit(new CommandAPDU(APDU_CLEANUP));
+        }
     }
 
     @Nested